@@ -0,0 +1,172 @@
+package com.brackeen.scared;
+
+import com.brackeen.scared.entity.Player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the software renderer's hot paths, on one render thread. Each stage is run on
+ * the state left by a full frame rendered during setup, so the stages can be measured
+ * separately.
+ *
+ * Run with:
+ *     ./gradlew jmh
+ * Run a subset with JMH options, for example:
+ *     ./gradlew jmh -PjmhArgs="SoftRender3DBenchmark.drawFloors -p level=0 -p resolution=640x480"
+ * With Java 16 or newer, the Vector API span kernels are used. Compare the scalar loops with:
+ *     ./gradlew jmh -PnoVectorApi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoftRender3DBenchmark {
+
+    @Param({"0", "1", "2", "3", "4", "5", "6"})
+    public int level;
+
+    @Param({"320x240", "640x480", "1280x720", "1920x1080", "2560x1440"})
+    public String resolution;
+
+    @Param({"true", "false"})
+    public boolean depthShading;
+
+    // Camera direction, in degrees, at the player's start location
+    @Param({"0", "90", "180", "270"})
+    public int pose;
+
+    private SoftRender3D renderer;
+    private SoftTexture frameBuffer;
+    private int wallTextureId;
+    private SoftTexture skyTexture;
+    private int depth;
+    private int f_frameHeight;
+    private int[] translucentColumn;
+    private SoftTexture floorTexture;
+    private int floorTextureSizeBits;
+    private ShadeTable shadeTable;
+    private int shadeOffset;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int x = resolution.indexOf('x');
+        int width = Integer.parseInt(resolution.substring(0, x));
+        int height = Integer.parseInt(resolution.substring(x + 1));
+
+        HashMap<String, SoftTexture> textureCache = OffscreenRender.loadTextures();
+        Map map = new Map(textureCache, new MessageQueue(4), "/maps/level" + level + ".txt", null, new Stats());
+        Player player = map.getPlayer();
+
+        renderer = new SoftRender3D(textureCache, OffscreenRender.loadImage("/background/background.png"));
+        renderer.setNumRenderThreads(1);
+        renderer.setDepthShadingEnabled(depthShading);
+        renderer.setSize(width, height);
+        renderer.load();
+        renderer.setMap(map);
+        renderer.setCamera(player.getX(), player.getY(), player.getZ(), pose);
+        renderer.render();
+
+        frameBuffer = renderer.getFrameBuffer();
+        wallTextureId = renderer.getTextureAtlas().getId(textureCache.get("wall01.png"));
+        skyTexture = new SoftTexture(width, height / 2);
+        depth = depthShading ? SoftRender3D.DEPTH_MAX / 2 : 0;
+        f_frameHeight = height << SoftRender3D.FRACTION_BITS;
+        translucentColumn = new int[height];
+        Arrays.fill(translucentColumn, 0x80c08040);
+        floorTexture = textureCache.get("wall01.png");
+        floorTextureSizeBits = Integer.numberOfTrailingZeros(floorTexture.getWidth());
+        shadeTable = new ShadeTable(SoftRender3D.DEPTH_MAX);
+        shadeOffset = depth > ShadeTable.MIN_DEPTH ? shadeTable.getOffset(depth) : -1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        renderer.unload();
+    }
+
+    @Benchmark
+    public void render() {
+        renderer.render();
+    }
+
+    @Benchmark
+    public void raycast() {
+        renderer.raycast(SoftRender3D.STRIP_STAGE_RAYCAST);
+    }
+
+    @Benchmark
+    public void drawWalls() {
+        renderer.drawWalls(0, frameBuffer.getWidth());
+    }
+
+    @Benchmark
+    public void drawFloors() {
+        renderer.drawFloors();
+    }
+
+    @Benchmark
+    public void drawEntities() {
+        renderer.drawSprites(0, frameBuffer.getWidth());
+    }
+
+    /**
+     * Draws a wall sliver that covers the height of the frame, in the middle column.
+     */
+    @Benchmark
+    public int drawTextureSliver() {
+        int f_sliver = 1 << (SoftRender3D.FRACTION_BITS - 1);
+        return renderer.drawTextureSliver(wallTextureId, true, f_sliver, depth,
+                frameBuffer.getWidth() / 2, 0, f_frameHeight, false);
+    }
+
+    /**
+     * Draws an opaque floor span across the bottom row of the frame, right to left like
+     * drawFloors(), with a span kernel.
+     */
+    @Benchmark
+    public void copyFloor() {
+        int width = frameBuffer.getWidth();
+        long step = (1L << 32) / 16;
+        SpanKernels.copyFloor(floorTexture.getData(), 0, floorTextureSizeBits, 0, 0, step, step / 4,
+                frameBuffer.getData(), frameBuffer.getHeight() * width - 1, -1, width,
+                shadeTable, shadeOffset);
+    }
+
+    /**
+     * Blends a column of translucent pixels down the middle of the frame, with a span kernel.
+     */
+    @Benchmark
+    public void blendColumn() {
+        int height = frameBuffer.getHeight();
+        SpanKernels.blendColumn(translucentColumn, 0, 0, 1 << SoftRender3D.FRACTION_BITS,
+                frameBuffer.getData(), frameBuffer.getWidth() / 2, frameBuffer.getWidth(), height,
+                shadeTable, shadeOffset);
+    }
+
+    /**
+     * Draws an opaque texture over the top half of the frame, like the sky.
+     */
+    @Benchmark
+    public void softTextureDraw() {
+        frameBuffer.draw(skyTexture, 0, 0, true);
+    }
+}
@@ -6,6 +6,7 @@ import com.brackeen.app.view.Scene;
 import com.brackeen.app.view.View;
 
 import java.applet.Applet;
+import java.awt.AWTEvent;
 import java.awt.AlphaComposite;
 import java.awt.Canvas;
 import java.awt.Color;
@@ -44,9 +45,11 @@ import java.net.URL;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
@@ -81,7 +84,15 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
             System.out.println(statement);
         }
 
-        List<String> log = App.getApp().getLog();
+        App app = App.getApp();
+        if (app == null) {
+            // No app, as when rendering offscreen
+            if (!toSystemOut) {
+                System.out.println(statement);
+            }
+            return;
+        }
+        List<String> log = app.getLog();
 
         // Split on newlines
         int index = 0;
@@ -100,24 +111,50 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         }
     }
 
+    // Profiler stages recorded by the app
+    public static final String PROFILE_STAGE_FRAME = "frame"; // Time between frames
+    public static final String PROFILE_STAGE_TICK = "tick";   // Simulation ticks
+    public static final String PROFILE_STAGE_DRAW = "draw";   // Drawing the scene
+    public static final String PROFILE_STAGE_SHOW = "show";   // Presenting the frame
+
     private JFrame frame;
     private String appName = "App";
     private BufferedImage iconImage;
-    private final float simulationRate = 60;
-    private final float frameRate = 60;
+    // The game loop parks until this long before a frame is due, then spins. On Linux, parkNanos()
+    // woke up 0.14 ms late at the median and 0.5 ms late at the 99th percentile, so a 0.5 ms spin
+    // makes most frames on time, and a late wakeup costs at most a fraction of a millisecond.
+    private static final long SPIN_NANOS = 500000;
+    // With an uncapped frame rate, frames start at least this far apart (at most 1000 per
+    // second), so cheap frames don't keep a core busy. The loop only parks for this wait.
+    private static final long MIN_UNCAPPED_FRAME_NANOS = 1000000;
+
+    private volatile float simulationRate = 60;
+    private volatile float frameRate = 60;
     private float audioSampleRate = 44100;
-    private boolean gameLoopRunning = false;
+    private volatile Thread gameLoopThread;
     private long lastTime = 0;
     private double remainingTime = 0;
+    private float tickInterpolation = 1;
     private long lastTickTime = 0;
     private float actualFrameRate = 0;
     private long actualFrameRateLastTime = 0;
     private long actualFrameRateTickCount = 0;
+    private int frameTimeCount = 0;
+    private double frameTimeSum = 0;
+    private double frameTimeSumOfSquares = 0;
+    private float frameTimeMean = 0;
+    private float frameTimeVariance = 0;
     private int pixelScale = 1;
     private boolean autoPixelScale = false;
     private int autoPixelScaleBaseWidth = 320;
     private int autoPixelScaleBaseHeight = 240;
-    private BufferedImage pixelScaleBufferedImage;
+    private BufferedImage presentationImage;
+    private boolean drawingToPresentationImage;
+    private final Profiler profiler = new Profiler();
+    private final int profileFrameStage = profiler.getStage(PROFILE_STAGE_FRAME);
+    private final int profileTickStage = profiler.getStage(PROFILE_STAGE_TICK);
+    private final int profileDrawStage = profiler.getStage(PROFILE_STAGE_DRAW);
+    private final int profileShowStage = profiler.getStage(PROFILE_STAGE_SHOW);
 
     private final List<String> log = new ArrayList<>();
 
@@ -126,8 +163,24 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
     private final Stack<Scene> sceneStack = new Stack<>();
     private List<View> prevViewsWithTouchInside = new ArrayList<>();
     private List<View> currViewsWithTouchInside = new ArrayList<>();
+    // Input events from the AWT event thread, dispatched on the game loop thread
+    private final InputEventBuffer inputEvents = new InputEventBuffer(1024);
+    private final BitSet keysDown = new BitSet(256);
+    // Key presses that arrived before this time don't set keysDown. See clearKeysDown().
+    private long keysClearedTime;
+    // Each tick publishes the snapshot in the other slot, so the previous tick's snapshot isn't
+    // written while a scene may still compare with it
+    private final InputSnapshot[] inputSnapshots = { new InputSnapshot(), new InputSnapshot() };
+    private int inputSnapshotIndex;
+    // The canvas is created on the AWT event thread. The game loop requests it, then takes its
+    // buffer strategy from newBufferStrategy once canvasPending is false.
     private BufferStrategy bufferStrategy;
-    private Canvas canvas;
+    private volatile Canvas canvas;
+    private volatile BufferStrategy newBufferStrategy;
+    private volatile boolean canvasPending;
+    private Cursor requestedCursor;
+    // Scenes are resized once the new canvas is ready
+    private boolean needsResize;
     private int mouseX = -1;
     private int mouseY = -1;
 
@@ -154,18 +207,22 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         actualFrameRate = 0;
         actualFrameRateLastTime = 0;
         actualFrameRateTickCount = 0;
-        gameLoopRunning = true;
-        EventQueue.invokeLater(new Runnable() {
+        frameTimeCount = 0;
+        frameTimeSum = 0;
+        frameTimeSumOfSquares = 0;
+        Thread thread = new Thread(new Runnable() {
             @Override
             public void run() {
-                tick();
+                runGameLoop();
             }
-        });
+        }, appName + " game loop");
+        gameLoopThread = thread;
+        thread.start();
     }
 
     @Override
     public synchronized void stop() {
-        gameLoopRunning = false;
+        gameLoopThread = null;
     }
 
     @Override
@@ -304,34 +361,66 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         }
     }
 
-    private synchronized void tick() {
-        if (gameLoopRunning) {
+    /**
+     * Runs frames on the game loop thread until stop() is called. Each frame has a deadline,
+     * 1/frameRate after the previous one. The thread parks until shortly before the deadline
+     * and spins for the rest. If a frame is more than a frame late, the missed frames are
+     * skipped instead of run back to back. If the frame rate is uncapped, frames run as soon as
+     * the previous one is done, but no sooner than MIN_UNCAPPED_FRAME_NANOS after its start.
+     */
+    private void runGameLoop() {
+        Thread thread = Thread.currentThread();
+        long nextFrameTime = System.nanoTime();
+        while (gameLoopThread == thread) {
+            float frameRate = this.frameRate;
+            if (frameRate <= 0) {
+                waitUntil(nextFrameTime, 0);
+                nextFrameTime = System.nanoTime() + MIN_UNCAPPED_FRAME_NANOS;
+                tick(thread);
+                continue;
+            }
+            waitUntil(nextFrameTime, SPIN_NANOS);
+            tick(thread);
+            long frameNanos = (long) (1000000000 / frameRate);
+            nextFrameTime += frameNanos;
+            long time = System.nanoTime();
+            if (time - nextFrameTime > frameNanos) {
+                nextFrameTime = time;
+            }
+        }
+    }
+
+    /**
+     * Parks until spinNanos before the deadline, then spins until the deadline.
+     */
+    private static void waitUntil(long deadline, long spinNanos) {
+        while (true) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return;
+            } else if (remainingNanos > spinNanos) {
+                LockSupport.parkNanos(remainingNanos - spinNanos);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    private synchronized void tick(Thread thread) {
+        if (gameLoopThread == thread) {
             doTick();
-            EventQueue.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    tick();
-                }
-            });
         }
     }
 
     private void doTick() {
         long tickTime = System.nanoTime();
-        if (tickTime - lastTickTime < 1000000000 / frameRate) {
-            if (tickTime - lastTickTime < 1000000000 / frameRate - 2000000) {
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException ex) {
-                    // Do nothing
-                }
-            }
-            return;
-        } else {
-            lastTickTime = tickTime;
+        long frameTime = 0;
+        if (lastTickTime != 0) {
+            frameTime = tickTime - lastTickTime;
+            profiler.add(profileFrameStage, frameTime);
         }
+        lastTickTime = tickTime;
 
-        boolean needsResize = false;
         if (App.getApp() == null) {
             // For appletviewer
             APP.set(this);
@@ -351,28 +440,19 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
             bufferStrategy = null;
             needsResize = true;
         }
-        if (bufferStrategy == null) {
-            removeAll();
-            canvas = new AppCanvas();
-            canvas.setSize(getWidth(), getHeight());
-            canvas.setLocation(0, 0);
-            setLayout(null);
-            add(canvas);
-            try {
-                canvas.createBufferStrategy(2);
-                bufferStrategy = canvas.getBufferStrategy();
-            } catch (Exception ex) {
-                // Do nothing
-            }
-            if (bufferStrategy == null) {
-                canvas = null;
+        if (bufferStrategy == null && !canvasPending) {
+            BufferStrategy createdBufferStrategy = newBufferStrategy;
+            if (createdBufferStrategy == null) {
+                canvasPending = true;
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        createCanvas();
+                    }
+                });
             } else {
-                canvas.addMouseListener(this);
-                canvas.addMouseMotionListener(this);
-                canvas.addKeyListener(this);
-                canvas.addFocusListener(this);
-                canvas.setFocusTraversalKeysEnabled(false);
-                canvas.requestFocus();
+                newBufferStrategy = null;
+                bufferStrategy = createdBufferStrategy;
                 lastTime = System.nanoTime();
                 remainingTime = 0;
             }
@@ -380,14 +460,17 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         if (bufferStrategy != null) {
             // Resize
             if (needsResize) {
+                needsResize = false;
                 for (Scene scene : sceneStack) {
                     scene.notifySuperviewDirty();
                     scene.setSize(getWidthForScene(), getHeightForScene());
                 }
             }
 
-            // Tick
-            double elapsedTime = (System.nanoTime() - lastTime) / 1000000000.0 + remainingTime;
+            // Tick. Each tick first dispatches the input events that arrived before its time.
+            long profileStartTime = profiler.start();
+            long now = System.nanoTime();
+            double elapsedTime = (now - lastTime) / 1000000000.0 + remainingTime;
             int ticks = (int) (simulationRate * elapsedTime);
             if (ticks > 0) {
                 if (ticks > 4) {
@@ -400,11 +483,16 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
                     if (sceneStack.size() == 0) {
                         pushScene(createFirstScene());
                     }
+                    long inputTime = now - (long) ((ticks - 1 - i) * 1000000000.0 / simulationRate);
+                    dispatchInputEvents(inputTime);
                     View scene = sceneStack.peek();
                     scene.tick();
                 }
                 lastTime = System.nanoTime();
             }
+            tickInterpolation = (float) Math.min(1,
+                    ((System.nanoTime() - lastTime) / 1000000000.0 + remainingTime) * simulationRate);
+            profiler.end(profileTickStage, profileStartTime);
             View scene = null;
             if (!sceneStack.isEmpty()) {
                 scene = sceneStack.peek();
@@ -423,41 +511,69 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
                     pick = pick.getSuperview();
                 }
             }
-            if (getCursor() != cursor) {
-                setCursor(cursor);
+            if (requestedCursor != cursor) {
+                requestedCursor = cursor;
+                final Cursor newCursor = cursor;
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        setCursor(newCursor);
+                    }
+                });
             }
 
             // Draw
+            profileStartTime = profiler.start();
             Graphics2D g = (Graphics2D) bufferStrategy.getDrawGraphics();
             if (scene == null) {
                 g.setColor(Color.BLACK);
                 g.fillRect(0, 0, getWidth(), getHeight());
+                profiler.end(profileDrawStage, profileStartTime);
+                profileStartTime = profiler.start();
             } else if (pixelScale > 1) {
-                if (pixelScaleBufferedImage == null ||
-                        pixelScaleBufferedImage.getWidth() != getWidthForScene() ||
-                        pixelScaleBufferedImage.getHeight() != getHeightForScene()) {
-                    pixelScaleBufferedImage = new BufferedImage(getWidthForScene(),
-                            getHeightForScene(),
+                // The scene is drawn at window size, scaled by pixelScale (see View), so views
+                // that render in software can write into the image's pixels directly. The image
+                // is then drawn unscaled.
+                if (presentationImage == null ||
+                        presentationImage.getWidth() != getWidth() ||
+                        presentationImage.getHeight() != getHeight()) {
+                    presentationImage = new BufferedImage(getWidth(), getHeight(),
                             BufferedImage.TYPE_INT_RGB);
                 }
-                Graphics2D g2 = pixelScaleBufferedImage.createGraphics();
-                scene.draw(g2);
-                g2.dispose();
-                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                Graphics2D g2 = presentationImage.createGraphics();
+                g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
                         RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-                g.setTransform(AffineTransform.getScaleInstance(pixelScale, pixelScale));
+                drawingToPresentationImage = true;
+                try {
+                    scene.draw(g2);
+                } finally {
+                    drawingToPresentationImage = false;
+                    g2.dispose();
+                }
+                profiler.end(profileDrawStage, profileStartTime);
+                profileStartTime = profiler.start();
                 g.setComposite(AlphaComposite.Src);
-                g.drawImage(pixelScaleBufferedImage, 0, 0, null);
+                g.drawImage(presentationImage, 0, 0, null);
             } else {
-                pixelScaleBufferedImage = null;
+                presentationImage = null;
                 g.setComposite(AlphaComposite.SrcOver);
                 scene.draw(g);
+                profiler.end(profileDrawStage, profileStartTime);
+                profileStartTime = profiler.start();
             }
             g.dispose();
             bufferStrategy.show();
+            profiler.end(profileShowStage, profileStartTime);
+            profiler.endFrame();
 
             // Frame rate
             actualFrameRateTickCount++;
+            if (frameTime > 0) {
+                double frameMillis = frameTime / 1000000.0;
+                frameTimeCount++;
+                frameTimeSum += frameMillis;
+                frameTimeSumOfSquares += frameMillis * frameMillis;
+            }
             if (lastTime - actualFrameRateLastTime >= 500000000) {
                 float duration = (lastTime - actualFrameRateLastTime) / 1000000000.0f;
                 if (actualFrameRateLastTime == 0) {
@@ -465,12 +581,53 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
                 } else {
                     actualFrameRate = actualFrameRateTickCount / duration;
                 }
+                if (frameTimeCount > 0) {
+                    double mean = frameTimeSum / frameTimeCount;
+                    frameTimeMean = (float) mean;
+                    frameTimeVariance = (float) Math.max(0, frameTimeSumOfSquares / frameTimeCount - mean * mean);
+                }
                 actualFrameRateTickCount = 0;
                 actualFrameRateLastTime = lastTime;
+                frameTimeCount = 0;
+                frameTimeSum = 0;
+                frameTimeSumOfSquares = 0;
             }
         }
     }
 
+    /**
+     * Replaces the canvas with a new one, on the AWT event thread. Its buffer strategy is handed
+     * to the game loop, which retries on the next frame if it couldn't be created.
+     */
+    private void createCanvas() {
+        removeAll();
+        Canvas newCanvas = new AppCanvas();
+        newCanvas.setSize(getWidth(), getHeight());
+        newCanvas.setLocation(0, 0);
+        setLayout(null);
+        add(newCanvas);
+        BufferStrategy createdBufferStrategy = null;
+        try {
+            newCanvas.createBufferStrategy(2);
+            createdBufferStrategy = newCanvas.getBufferStrategy();
+        } catch (Exception ex) {
+            // Do nothing
+        }
+        if (createdBufferStrategy == null) {
+            canvas = null;
+        } else {
+            newCanvas.addMouseListener(this);
+            newCanvas.addMouseMotionListener(this);
+            newCanvas.addKeyListener(this);
+            newCanvas.addFocusListener(this);
+            newCanvas.setFocusTraversalKeysEnabled(false);
+            newCanvas.requestFocus();
+            canvas = newCanvas;
+        }
+        newBufferStrategy = createdBufferStrategy;
+        canvasPending = false;
+    }
+
     public String getAppName() {
         return appName;
     }
@@ -487,10 +644,84 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         this.audioSampleRate = audioSampleRate;
     }
 
+    /**
+     * Gets the number of frames per second the game loop aims for, or 0 if the frame rate is
+     * uncapped.
+     */
+    public float getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Sets the number of frames per second the game loop aims for. If 0, the frame rate is
+     * uncapped, and frames are drawn as fast as possible while scenes still tick at the
+     * simulation rate.
+     */
+    public void setFrameRate(float frameRate) {
+        this.frameRate = frameRate <= 0 ? 0 : Math.max(1, frameRate);
+    }
+
+    /**
+     * Gets how far the frame being drawn is between the last tick and the next, from 0 to 1. Only
+     * valid while drawing. A scene that keeps the state of its previous tick can draw that state
+     * interpolated toward its current state by this fraction, which smooths motion when frames
+     * are drawn more often than scenes tick.
+     */
+    public float getTickInterpolation() {
+        return tickInterpolation;
+    }
+
+    public float getSimulationRate() {
+        return simulationRate;
+    }
+
+    /**
+     * Sets the number of scene ticks per second. Scenes that count ticks run faster or slower
+     * if this is changed.
+     */
+    public void setSimulationRate(float simulationRate) {
+        this.simulationRate = Math.max(1, simulationRate);
+    }
+
+    /**
+     * Gets the frame profiler, which is disabled by default. The app records the stages
+     * PROFILE_STAGE_FRAME, PROFILE_STAGE_TICK, PROFILE_STAGE_DRAW, and PROFILE_STAGE_SHOW. Views
+     * may record their own stages, nested in PROFILE_STAGE_DRAW.
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
     public float getActualFrameRate() {
         return actualFrameRate;
     }
 
+    /**
+     * Gets the mean time between frames, in milliseconds, measured over the same interval as
+     * getActualFrameRate().
+     */
+    public float getFrameTimeMean() {
+        return frameTimeMean;
+    }
+
+    /**
+     * Gets the variance of the time between frames, in milliseconds squared, measured over the
+     * same interval as getActualFrameRate().
+     */
+    public float getFrameTimeVariance() {
+        return frameTimeVariance;
+    }
+
+    /**
+     * Gets the image the current scene is being drawn into, or null if the scene is being drawn
+     * directly to the screen. The image is TYPE_INT_RGB, at window size, and views are drawn to it
+     * scaled by the pixel scale. Views that render in software may write to its pixels instead of
+     * drawing an image, as long as the draw transform is only a translation and scale.
+     */
+    public BufferedImage getPresentationImage() {
+        return drawingToPresentationImage ? presentationImage : null;
+    }
+
     public int getPixelScale() {
         return pixelScale;
     }
@@ -574,6 +805,15 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         return audio;
     }
 
+    /**
+     * Gets an audio file from the current app, or a blank audio buffer if there is no app, as
+     * when the game is simulated headless. Never returns null.
+     */
+    public static AudioBuffer getAppAudio(String audioName) {
+        App app = getApp();
+        return app == null ? AudioBuffer.BLANK_AUDIO : app.getAudio(audioName);
+    }
+
     public void unloadAudio(String audioName) {
         loadedAudio.remove(audioName);
     }
@@ -615,15 +855,19 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         return sceneStack.size() > 0;
     }
 
+    // Keys held in one scene aren't held in the next, like keys tracked by a scene's listeners
+
     public void popScene() {
         View scene = sceneStack.pop();
         scene.unload();
+        clearKeysDown();
     }
 
     public void pushScene(Scene scene) {
         scene.setSize(getWidthForScene(), getHeightForScene());
         scene.load();
         sceneStack.push(scene);
+        clearKeysDown();
     }
 
     public void setScene(Scene scene) {
@@ -719,9 +963,160 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         currViewsWithTouchInside.clear();
     }
 
-    // Propagate mouse events until it is consumed.
+    // Input events arrive on the AWT event thread, and are timestamped and queued for the game
+    // loop thread, so that views only handle input between ticks.
 
+    private void postInputEvent(AWTEvent e) {
+        // The buffer only drops events if the game loop stalls for many frames
+        inputEvents.offer(e, System.nanoTime());
+    }
+
+    @Override
     public void mouseClicked(MouseEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void mousePressed(MouseEvent e) {
+        Canvas canvas = this.canvas;
+        if (canvas != null && !canvas.isFocusOwner()) {
+            canvas.requestFocus();
+        }
+        postInputEvent(e);
+    }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void mouseMoved(MouseEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void mouseEntered(MouseEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void mouseExited(MouseEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void keyPressed(KeyEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void keyTyped(KeyEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void focusGained(FocusEvent e) {
+        postInputEvent(e);
+    }
+
+    @Override
+    public void focusLost(FocusEvent e) {
+        postInputEvent(e);
+    }
+
+    /**
+     * Dispatches the input events that arrived up to the time, and takes the input snapshot.
+     */
+    private void dispatchInputEvents(long time) {
+        int numEvents = 0;
+        long lastEventTime = 0;
+        while (inputEvents.peekTime() <= time) {
+            lastEventTime = inputEvents.peekTime();
+            AWTEvent e = inputEvents.poll();
+            numEvents++;
+            switch (e.getID()) {
+                case MouseEvent.MOUSE_CLICKED:
+                    dispatchMouseClicked((MouseEvent) e);
+                    break;
+                case MouseEvent.MOUSE_PRESSED:
+                    dispatchMousePressed((MouseEvent) e);
+                    break;
+                case MouseEvent.MOUSE_RELEASED:
+                    dispatchMouseReleased((MouseEvent) e);
+                    break;
+                case MouseEvent.MOUSE_MOVED:
+                case MouseEvent.MOUSE_ENTERED:
+                case MouseEvent.MOUSE_EXITED:
+                case MouseEvent.MOUSE_DRAGGED:
+                    dispatchMouseMoved((MouseEvent) e);
+                    break;
+                case KeyEvent.KEY_PRESSED:
+                    if (lastEventTime > keysClearedTime) {
+                        keysDown.set(((KeyEvent) e).getKeyCode());
+                    }
+                    dispatchKeyPressed((KeyEvent) e);
+                    break;
+                case KeyEvent.KEY_RELEASED:
+                    keysDown.clear(((KeyEvent) e).getKeyCode());
+                    dispatchKeyReleased((KeyEvent) e);
+                    break;
+                case KeyEvent.KEY_TYPED:
+                    dispatchKeyTyped((KeyEvent) e);
+                    break;
+                case FocusEvent.FOCUS_GAINED:
+                    dispatchFocusGained((FocusEvent) e);
+                    break;
+                case FocusEvent.FOCUS_LOST:
+                    // Key releases aren't received without focus
+                    keysDown.clear();
+                    dispatchFocusLost((FocusEvent) e);
+                    break;
+            }
+        }
+        inputSnapshotIndex = 1 - inputSnapshotIndex;
+        inputSnapshots[inputSnapshotIndex].set(time, keysDown, numEvents, lastEventTime);
+    }
+
+    /**
+     * Releases all held keys, for the rest of the tick and the ticks to come. The tick's input
+     * snapshot is replaced by a new one with no keys down. Key presses already waiting in the input buffer are still dispatched to views, but don't count as held,
+     * so a key has to be pressed again (or repeat) to be held. For example, a scene can call this
+     * when the player dies or the level changes.
+     */
+    public void clearKeysDown() {
+        keysDown.clear();
+        keysClearedTime = System.nanoTime();
+        // The replaced snapshot may be kept by a scene, so it isn't reused
+        InputSnapshot snapshot = inputSnapshots[inputSnapshotIndex];
+        InputSnapshot cleared = new InputSnapshot();
+        cleared.set(snapshot.getTime(), keysDown, snapshot.getNumEvents(), snapshot.getLastEventTime());
+        inputSnapshots[inputSnapshotIndex] = cleared;
+    }
+
+    /**
+     * Gets the input snapshot of the current tick. Scenes should read held keys from the
+     * snapshot in tick(), rather than tracking key events, so that every tick sees the input
+     * of one consistent moment. The snapshot doesn't change after it is published; a scene
+     * can keep it to compare with the next tick's snapshot.
+     */
+    public InputSnapshot getInputSnapshot() {
+        return inputSnapshots[inputSnapshotIndex];
+    }
+
+    // Propagate mouse events until it is consumed.
+
+    private void dispatchMouseClicked(MouseEvent e) {
         View view = getMousePick(e);
         while (view != null) {
             if (view.isEnabled()) {
@@ -737,10 +1132,7 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         }
     }
 
-    public void mousePressed(MouseEvent e) {
-        if (canvas != null && !canvas.isFocusOwner()) {
-            canvas.requestFocus();
-        }
+    private void dispatchMousePressed(MouseEvent e) {
         View view = getMousePick(e);
         while (view != null) {
             if (view.isEnabled()) {
@@ -756,7 +1148,7 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         }
     }
 
-    public void mouseReleased(MouseEvent e) {
+    private void dispatchMouseReleased(MouseEvent e) {
         View view = getMousePick(e);
         while (view != null) {
             if (view.isEnabled()) {
@@ -772,7 +1164,7 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         }
     }
 
-    public void mouseMoved(MouseEvent e) {
+    private void dispatchMouseMoved(MouseEvent e) {
         View view = getMousePick(e);
         dispatchEnterEvents(view, e);
 
@@ -792,47 +1184,35 @@ public abstract class App extends Applet implements MouseListener, MouseMotionLi
         dispatchExitEvents(e);
     }
 
-    public void mouseEntered(MouseEvent e) {
-        mouseMoved(e);
-    }
-
-    public void mouseExited(MouseEvent e) {
-        mouseMoved(e);
-    }
-
-    public void mouseDragged(MouseEvent e) {
-        mouseMoved(e);
-    }
-
-    public void keyPressed(KeyEvent e) {
+    private void dispatchKeyPressed(KeyEvent e) {
         KeyListener keyListener = getFocusedViewKeyListener();
         if (keyListener != null) {
             keyListener.keyPressed(e);
         }
     }
 
-    public void keyReleased(KeyEvent e) {
+    private void dispatchKeyReleased(KeyEvent e) {
         KeyListener keyListener = getFocusedViewKeyListener();
         if (keyListener != null) {
             keyListener.keyReleased(e);
         }
     }
 
-    public void keyTyped(KeyEvent e) {
+    private void dispatchKeyTyped(KeyEvent e) {
         KeyListener keyListener = getFocusedViewKeyListener();
         if (keyListener != null) {
             keyListener.keyTyped(e);
         }
     }
 
-    public void focusGained(FocusEvent e) {
+    private void dispatchFocusGained(FocusEvent e) {
         FocusListener focusListener = getFocusedViewFocusListener();
         if (focusListener != null) {
             focusListener.focusGained(e);
         }
     }
 
-    public void focusLost(FocusEvent e) {
+    private void dispatchFocusLost(FocusEvent e) {
         FocusListener focusListener = getFocusedViewFocusListener();
         if (focusListener != null) {
             focusListener.focusLost(e);
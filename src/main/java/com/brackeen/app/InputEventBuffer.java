@@ -0,0 +1,68 @@
+package com.brackeen.app;
+
+import java.awt.AWTEvent;
+
+/**
+ * A fixed-size ring buffer of timestamped input events, for handing events from one producer
+ * thread (the AWT event thread) to one consumer thread (the game loop) without locks. The
+ * producer only writes the write index and the consumer only writes the read index; each index
+ * is volatile, so an event's slot is published by the write index and released by the read
+ * index. If the buffer is full, new events are dropped.
+ */
+public class InputEventBuffer {
+
+    private final AWTEvent[] events;
+    private final long[] times;
+    private final int mask;
+    private volatile long writeIndex;
+    private volatile long readIndex;
+
+    /**
+     * Creates a buffer. The capacity is rounded up to a power of two.
+     */
+    public InputEventBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        events = new AWTEvent[size];
+        times = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an event, from the producer thread. Returns false if the buffer is full.
+     */
+    public boolean offer(AWTEvent event, long time) {
+        long index = writeIndex;
+        if (index - readIndex > mask) {
+            return false;
+        }
+        int slot = (int) index & mask;
+        events[slot] = event;
+        times[slot] = time;
+        writeIndex = index + 1;
+        return true;
+    }
+
+    /**
+     * Gets the time of the next event, from the consumer thread, or Long.MAX_VALUE if the buffer
+     * is empty.
+     */
+    public long peekTime() {
+        long index = readIndex;
+        return index == writeIndex ? Long.MAX_VALUE : times[(int) index & mask];
+    }
+
+    /**
+     * Removes the next event, from the consumer thread, or returns null if the buffer is empty.
+     */
+    public AWTEvent poll() {
+        long index = readIndex;
+        if (index == writeIndex) {
+            return null;
+        }
+        int slot = (int) index & mask;
+        AWTEvent event = events[slot];
+        events[slot] = null;
+        readIndex = index + 1;
+        return event;
+    }
+}
@@ -0,0 +1,57 @@
+package com.brackeen.app;
+
+import java.util.BitSet;
+
+/**
+ * The keyboard state at the start of a tick, after the tick's input events were dispatched.
+ * Snapshots are read-only. To avoid allocating each tick, the app reuses two snapshots in turn,
+ * so a snapshot stays the same through the next tick: a scene can keep the previous tick's
+ * snapshot to compare with the current one. To keep the state longer, copy the values.
+ */
+public final class InputSnapshot {
+
+    private long time;
+    private final BitSet keysDown = new BitSet(256);
+    private int numEvents;
+    private long lastEventTime;
+
+    InputSnapshot() {
+    }
+
+    void set(long time, BitSet keysDown, int numEvents, long lastEventTime) {
+        this.time = time;
+        this.keysDown.clear();
+        this.keysDown.or(keysDown);
+        this.numEvents = numEvents;
+        this.lastEventTime = lastEventTime;
+    }
+
+    /**
+     * Gets the time of the tick, from System.nanoTime().
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Checks if a key, a KeyEvent.VK constant, is down.
+     */
+    public boolean isKeyDown(int keyCode) {
+        return keyCode >= 0 && keysDown.get(keyCode);
+    }
+
+    /**
+     * Gets the number of input events dispatched for the tick.
+     */
+    public int getNumEvents() {
+        return numEvents;
+    }
+
+    /**
+     * Gets the time the newest of the tick's events arrived, from System.nanoTime(), or 0 if
+     * there were none.
+     */
+    public long getLastEventTime() {
+        return lastEventTime;
+    }
+}
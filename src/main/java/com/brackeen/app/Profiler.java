@@ -0,0 +1,165 @@
+package com.brackeen.app;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Frame profiler. Stages of a frame record the nanoseconds they took, and the times are kept
+ * per frame in a ring buffer of the last HISTORY frames, so they can be reported as percentiles or
+ * graphed.
+ *
+ * Recording doesn't lock or allocate. Samples are added atomically, so any thread may record any
+ * stage, including while another thread ends the frame. A sample is added to the frame that is
+ * current when it is added, so stages that run on another thread may land in the next frame.
+ */
+public class Profiler {
+
+    public static final int MAX_STAGES = 16;
+    public static final int HISTORY = 256;
+
+    private final String[] stageNames = new String[MAX_STAGES];
+    private volatile int numStages;
+    private final AtomicLongArray samples = new AtomicLongArray(HISTORY * MAX_STAGES);
+    private volatile int frame;
+    private volatile boolean enabled;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether stages are recorded. Enabling the profiler clears the history.
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            clear(0, HISTORY * MAX_STAGES);
+            frame = 0;
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets the stage with the name, adding it if it doesn't exist.
+     */
+    public synchronized int getStage(String name) {
+        for (int i = 0; i < numStages; i++) {
+            if (stageNames[i].equals(name)) {
+                return i;
+            }
+        }
+        if (numStages == MAX_STAGES) {
+            throw new IllegalStateException("Too many stages");
+        }
+        stageNames[numStages] = name;
+        return numStages++;
+    }
+
+    public int getNumStages() {
+        return numStages;
+    }
+
+    public String getStageName(int stage) {
+        return stageNames[stage];
+    }
+
+    /**
+     * Gets the start time for a stage, or 0 if the profiler is disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds the time since start() to a stage. Does nothing if start() returned 0.
+     */
+    public void end(int stage, long startTime) {
+        if (startTime != 0) {
+            add(stage, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Adds the time since start() to a stage that ran within a parent stage, on the same thread,
+     * and removes it from the parent, so the parent has only its own time.
+     */
+    public void endNested(int stage, int parentStage, long startTime) {
+        if (startTime != 0) {
+            long nanos = System.nanoTime() - startTime;
+            add(stage, nanos);
+            add(parentStage, -nanos);
+        }
+    }
+
+    /**
+     * Adds nanoseconds to a stage of the current frame. Stages that run more than once in a frame
+     * are summed.
+     */
+    public void add(int stage, long nanos) {
+        if (enabled) {
+            samples.addAndGet((frame % HISTORY) * MAX_STAGES + stage, nanos);
+        }
+    }
+
+    /**
+     * Ends the current frame and starts the next.
+     */
+    public void endFrame() {
+        if (enabled) {
+            int nextFrame = frame + 1;
+            clear((nextFrame % HISTORY) * MAX_STAGES, (nextFrame % HISTORY + 1) * MAX_STAGES);
+            frame = nextFrame;
+        }
+    }
+
+    private void clear(int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            samples.set(i, 0);
+        }
+    }
+
+    /**
+     * Gets the number of finished frames in the history.
+     */
+    public int getNumFrames() {
+        return Math.min(frame, HISTORY - 1);
+    }
+
+    /**
+     * Gets the nanoseconds of a stage in a finished frame, where 0 is the most recent.
+     */
+    public long getNanos(int stage, int framesAgo) {
+        int f = frame - 1 - framesAgo;
+        return f < 0 ? 0 : samples.get((f % HISTORY) * MAX_STAGES + stage);
+    }
+
+    /**
+     * Gets a table of the 50th, 95th, and 99th percentile and the max of each stage, in
+     * milliseconds, over the finished frames in the history.
+     */
+    public String getReport() {
+        int numFrames = getNumFrames();
+        if (numFrames == 0) {
+            return "No frames profiled";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%-10s %6s %6s %6s %6s", "ms", "p50", "p95", "p99", "max"));
+        long[] values = new long[numFrames];
+        for (int stage = 0; stage < numStages; stage++) {
+            for (int i = 0; i < numFrames; i++) {
+                values[i] = getNanos(stage, i);
+            }
+            Arrays.sort(values);
+            sb.append(String.format(Locale.US, "\n%-10s %6.2f %6.2f %6.2f %6.2f", stageNames[stage],
+                    getPercentile(values, 50), getPercentile(values, 95), getPercentile(values, 99),
+                    values[numFrames - 1] / 1000000.0));
+        }
+        sb.append(String.format(Locale.US, "\n(%d frames)", numFrames));
+        return sb.toString();
+    }
+
+    private static double getPercentile(long[] sortedValues, int percentile) {
+        int index = (sortedValues.length * percentile + 99) / 100 - 1;
+        return sortedValues[Math.max(0, index)] / 1000000.0;
+    }
+}
@@ -0,0 +1,93 @@
+package com.brackeen.app.view;
+
+import com.brackeen.app.App;
+import com.brackeen.app.Profiler;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+
+/**
+ * A graph of the recent frames of a profiler, one column per frame, newest on the right. Each
+ * column is a gray bar of the frame's total time, with the times of the graphed stages stacked
+ * over it from the bottom. The white line is the frame-time budget; the graph is twice as tall.
+ * Unless a budget is set, it is the app's current frame time, or its tick time if the frame rate
+ * is uncapped.
+ */
+public class ProfilerGraph extends View {
+
+    private static final Color FRAME_COLOR = new Color(96, 96, 96);
+    private static final Color BUDGET_COLOR = Color.WHITE;
+    private static final Color[] STAGE_COLORS = {
+            new Color(64, 128, 255),
+            new Color(64, 224, 64),
+            new Color(255, 224, 64),
+            new Color(255, 64, 64),
+            new Color(64, 224, 224),
+            new Color(224, 64, 224),
+    };
+
+    private final Profiler profiler;
+    private final int frameStage;
+    private final int[] stages;
+    private float budgetMillis;
+
+    /**
+     * Creates a graph of the stages, in the colors blue, green, yellow, red, cyan, and magenta.
+     * The frameStage is the total time of each frame.
+     */
+    public ProfilerGraph(Profiler profiler, String frameStageName, String... stageNames) {
+        this.profiler = profiler;
+        frameStage = profiler.getStage(frameStageName);
+        stages = new int[Math.min(stageNames.length, STAGE_COLORS.length)];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = profiler.getStage(stageNames[i]);
+        }
+        setBackgroundColor(new Color(0, 0, 0, 160));
+    }
+
+    /**
+     * Gets the frame-time budget in milliseconds. If no budget is set, it is read from the app
+     * each time, so it follows changes to the frame rate.
+     */
+    public float getBudgetMillis() {
+        if (budgetMillis > 0) {
+            return budgetMillis;
+        }
+        App app = App.getApp();
+        float frameRate = app.getFrameRate() > 0 ? app.getFrameRate() : app.getSimulationRate();
+        return 1000 / frameRate;
+    }
+
+    /**
+     * Sets the frame-time budget in milliseconds, or 0 to use the app's frame rate.
+     */
+    public void setBudgetMillis(float budgetMillis) {
+        this.budgetMillis = Math.max(0, budgetMillis);
+    }
+
+    @Override
+    public void onDraw(Graphics2D g) {
+        int width = (int) getWidth();
+        int height = (int) getHeight();
+        double pixelsPerNano = height / (2 * getBudgetMillis() * 1000000.0);
+        int numFrames = Math.min(width, profiler.getNumFrames());
+        for (int i = 0; i < numFrames; i++) {
+            int x = width - 1 - i;
+            int frameHeight = Math.min(height, (int) (profiler.getNanos(frameStage, i) * pixelsPerNano));
+            g.setColor(FRAME_COLOR);
+            g.fillRect(x, height - frameHeight, 1, frameHeight);
+
+            int y = height;
+            for (int j = 0; j < stages.length && y > 0; j++) {
+                int stageHeight = Math.min(y, (int) (profiler.getNanos(stages[j], i) * pixelsPerNano));
+                if (stageHeight > 0) {
+                    y -= stageHeight;
+                    g.setColor(STAGE_COLORS[j]);
+                    g.fillRect(x, y, 1, stageHeight);
+                }
+            }
+        }
+        g.setColor(BUDGET_COLOR);
+        g.fillRect(0, height / 2, width, 1);
+    }
+}
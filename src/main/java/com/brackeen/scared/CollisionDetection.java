@@ -416,14 +416,16 @@ public class CollisionDetection {
         int y2 = (int) (y + radius);
 
         int collision = 0;
+        int[] tileTypes = map.getTileTypes();
+        int[] tileRenderStates = map.getTileRenderStates();
 
         // check for solid walls
         for (int tileY = y1; tileY <= y2; tileY++) {
             for (int tileX = x1; tileX <= x2; tileX++) {
-                Tile tile = map.getTileAt(tileX, tileY);
+                int tileIndex = map.getTileIndex(tileX, tileY);
 
                 // Treat out-of-bounds tiles as "solid"
-                if (tile != null && !tile.isSolid()) {
+                if (tileIndex >= 0 && !Tile.isSolid(tileTypes[tileIndex], tileRenderStates[tileIndex])) {
                     continue;
                 }
 
@@ -439,8 +441,8 @@ public class CollisionDetection {
                     collision |= WALL_COLLISION_SOUTH;
                 }
 
-                if (isPlayer && tile != null && tile.renderState == 0) {
-                    map.notifyPlayerTouchedWall(tile, tileX, tileY);
+                if (isPlayer && tileIndex >= 0 && tileRenderStates[tileIndex] == 0) {
+                    map.notifyPlayerTouchedWall(map.getTileAt(tileX, tileY), tileX, tileY);
                 }
             }
         }
@@ -0,0 +1,107 @@
+package com.brackeen.scared;
+
+/**
+ * Chooses a render scale that keeps the time to render a frame within a budget, so that a
+ * target frame rate can be held. Render times are averaged over a group of frames, and the scale
+ * is predicted from the average, assuming the time is proportional to the number of pixels
+ * (the square of the scale).
+ *
+ * Scales are multiples of 1/SCALE_STEPS, so the renderer sees only a few sizes. The scale drops
+ * as soon as a group of frames is over budget, but rises only when there is headroom, and one
+ * step at a time, so it doesn't flip between two sizes.
+ */
+public class DynamicResolution {
+
+    public static final int SCALE_STEPS = 16;
+
+    // Share of the frame time that rendering may use. The rest is for the simulation and for
+    // presenting the frame.
+    private static final float BUDGET_FRACTION = 0.75f;
+
+    // The scale rises only if the predicted time at the higher scale is within this share of
+    // the budget.
+    private static final float RAISE_FRACTION = 0.85f;
+
+    private static final int FRAMES_PER_UPDATE = 15;
+
+    private float targetFrameRate = 60;
+    private int minScaleSteps = SCALE_STEPS / 4;
+    private int scaleSteps = SCALE_STEPS;
+    private long totalNanos;
+    private int numFrames;
+
+    public float getTargetFrameRate() {
+        return targetFrameRate;
+    }
+
+    public void setTargetFrameRate(float targetFrameRate) {
+        this.targetFrameRate = Math.max(1, targetFrameRate);
+        reset();
+    }
+
+    public float getMinScale() {
+        return (float) minScaleSteps / SCALE_STEPS;
+    }
+
+    /**
+     * Sets the lowest scale, from 1/SCALE_STEPS to 1.
+     */
+    public void setMinScale(float minScale) {
+        minScaleSteps = Math.round(minScale * SCALE_STEPS);
+        minScaleSteps = Math.max(1, Math.min(SCALE_STEPS, minScaleSteps));
+        scaleSteps = Math.max(minScaleSteps, scaleSteps);
+        reset();
+    }
+
+    public float getScale() {
+        return (float) scaleSteps / SCALE_STEPS;
+    }
+
+    /**
+     * Sets the scale back to 1 and forgets the measured frames.
+     */
+    public void reset() {
+        scaleSteps = SCALE_STEPS;
+        totalNanos = 0;
+        numFrames = 0;
+    }
+
+    /**
+     * Adds the time it took to render a frame at the current scale. Returns true if the scale
+     * changed.
+     */
+    public boolean addFrame(long nanos) {
+        totalNanos += nanos;
+        numFrames++;
+        if (numFrames < FRAMES_PER_UPDATE) {
+            return false;
+        }
+
+        double averageNanos = (double) totalNanos / numFrames;
+        totalNanos = 0;
+        numFrames = 0;
+        if (averageNanos <= 0) {
+            return false;
+        }
+
+        double budgetNanos = BUDGET_FRACTION * 1000000000.0 / targetFrameRate;
+        int newScaleSteps = scaleSteps;
+        if (averageNanos > budgetNanos) {
+            // Fit the budget in one update
+            double fit = Math.sqrt(budgetNanos / averageNanos);
+            newScaleSteps = Math.min(scaleSteps - 1, (int) (scaleSteps * fit));
+        } else if (scaleSteps < SCALE_STEPS) {
+            double next = (double) (scaleSteps + 1) / scaleSteps;
+            if (averageNanos * next * next <= budgetNanos * RAISE_FRACTION) {
+                newScaleSteps = scaleSteps + 1;
+            }
+        }
+        newScaleSteps = Math.max(minScaleSteps, Math.min(SCALE_STEPS, newScaleSteps));
+        if (newScaleSteps != scaleSteps) {
+            scaleSteps = newScaleSteps;
+            return true;
+        } else {
+            return false;
+        }
+    }
+}
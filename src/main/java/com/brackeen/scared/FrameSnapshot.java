@@ -0,0 +1,364 @@
+package com.brackeen.scared;
+
+import com.brackeen.scared.entity.Entity;
+import com.brackeen.scared.entity.Player;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The state needed to render one frame: the camera, the render state of every tile, and the
+ * sprites. A snapshot is captured on the simulation thread and isn't modified while it is
+ * rendered, so a frame can be rendered on another thread while the next tick is simulated.
+ * Tiles are indexed by x + y * mapWidth. Textures are ids in the renderer's TextureAtlas.
+ */
+public class FrameSnapshot {
+
+    private float cameraX;
+    private float cameraY;
+    private float cameraZ;
+    private float cameraDirection;
+
+    private int mapWidth;
+    private int mapHeight;
+    private int[] tileTypes = new int[0];
+    private int[] tileSubtypes = new int[0];
+    private int[] tileRenderStates = new int[0];
+    private int[] tileTextureIds = new int[0];
+    private int[] textureIds = new int[0]; // Atlas ids of the map's textures
+    private int defaultFloorTextureId;
+    // The map, atlas and tile mod count the tiles were last copied from
+    private Map tileSourceMap;
+    private TextureAtlas tileSourceAtlas;
+    private int tileSourceModCount;
+
+    // Blocks of Map.BLOCK_SIZE x Map.BLOCK_SIZE tiles, indexed by blockX + blockY * blocksWide.
+    private int blocksWide;
+    private int blocksHigh;
+    private boolean[] skippableBlocks = new boolean[0];
+
+    // Sprites are grouped by tile. The sprites in tile i are tileSpriteStart[i] (inclusive) to
+    // tileSpriteStart[i + 1] (exclusive), in the same order as the tile's entity list.
+    private int[] tileSpriteStart = new int[1];
+    private int numSprites;
+    private float[] spriteX = new float[0];
+    private float[] spriteY = new float[0];
+    private float[] spriteZ = new float[0];
+    private int[] spriteTextureIds = new int[0];
+    private float[] spriteTextureScales = new float[0];
+    private float[] spriteDepthOffsets = new float[0];
+
+    /**
+     * Captures the map and camera, reusing this snapshot's arrays when possible. Textures not yet
+     * in the atlas are added to it. Sprites are placed the interpolation fraction of the way from
+     * their entity's previous location to its current location.
+     */
+    public void capture(Map map, TextureAtlas atlas, float cameraX, float cameraY, float cameraZ,
+                        float cameraDirection, float interpolation) {
+        this.cameraX = cameraX;
+        this.cameraY = cameraY;
+        this.cameraZ = cameraZ;
+        this.cameraDirection = cameraDirection;
+
+        mapWidth = map.getWidth();
+        mapHeight = map.getHeight();
+        defaultFloorTextureId = atlas.getId(map.getDefaultFloorTexture());
+        int numTiles = mapWidth * mapHeight;
+        if (tileTypes.length != numTiles) {
+            tileTypes = new int[numTiles];
+            tileSubtypes = new int[numTiles];
+            tileRenderStates = new int[numTiles];
+            tileTextureIds = new int[numTiles];
+            tileSpriteStart = new int[numTiles + 1];
+            tileSourceMap = null;
+        }
+        if (tileSourceMap != map || tileSourceAtlas != atlas || tileSourceModCount != map.getTileModCount()) {
+            captureTiles(map, atlas);
+        }
+        captureSprites(map, atlas, interpolation);
+        captureSkippableBlocks(map);
+    }
+
+    /**
+     * Copies the tiles. Skipped when no tile changed since this snapshot last copied them, which
+     * is most frames.
+     */
+    private void captureTiles(Map map, TextureAtlas atlas) {
+        tileSourceMap = map;
+        tileSourceAtlas = atlas;
+        tileSourceModCount = map.getTileModCount();
+        int numTiles = mapWidth * mapHeight;
+
+        // Tile data is copied from the map's arrays. Map texture ids are converted to atlas ids.
+        int[] mapTileTypes = map.getTileTypes();
+        int[] mapTileSubtypes = map.getTileSubtypes();
+        int[] mapTileTextureIds = map.getTileTextureIds();
+        System.arraycopy(mapTileTypes, 0, tileTypes, 0, numTiles);
+        System.arraycopy(map.getTileRenderStates(), 0, tileRenderStates, 0, numTiles);
+        int numMapTextures = map.getNumTextures();
+        if (textureIds.length < numMapTextures) {
+            textureIds = new int[Math.max(numMapTextures, textureIds.length * 2)];
+        }
+        for (int i = 0; i < numMapTextures; i++) {
+            textureIds[i] = atlas.getId(map.getTexture(i));
+        }
+        for (int i = 0; i < numTiles; i++) {
+            int subtype = mapTileSubtypes[i];
+            // For doors, the door type (without the unlocked flag)
+            tileSubtypes[i] = mapTileTypes[i] == Tile.TYPE_DOOR ? (subtype & 0x1f) : subtype;
+            int textureId = mapTileTextureIds[i];
+            tileTextureIds[i] = textureId < 0 ? -1 : textureIds[textureId];
+        }
+    }
+
+    private void captureSprites(Map map, TextureAtlas atlas, float interpolation) {
+        int numTiles = mapWidth * mapHeight;
+        numSprites = 0;
+        Tile[] tiles = map.getTiles();
+        for (int index = 0; index < numTiles; index++) {
+            tileSpriteStart[index] = numSprites;
+            List<Entity> entities = tiles[index].getEntities();
+            if (entities != null) {
+                for (Entity entity : entities) {
+                    if (!(entity instanceof Player) && entity.getTexture() != null) {
+                        addSprite(entity, atlas, interpolation);
+                    }
+                }
+            }
+        }
+        tileSpriteStart[numTiles] = numSprites;
+    }
+
+    /**
+     * Finds the blocks that a ray can cross without visiting each tile: blocks where every tile is
+     * TYPE_NOTHING, and where no tile in or next to the block has a sprite. (Visiting a tile
+     * makes the sprites in the tiles around it visible.)
+     */
+    private void captureSkippableBlocks(Map map) {
+        blocksWide = map.getBlocksWide();
+        blocksHigh = map.getBlocksHigh();
+        int numBlocks = blocksWide * blocksHigh;
+        if (skippableBlocks.length != numBlocks) {
+            skippableBlocks = new boolean[numBlocks];
+        }
+        int[] blockTileCounts = map.getBlockTileCounts();
+        for (int i = 0; i < numBlocks; i++) {
+            skippableBlocks[i] = blockTileCounts[i] == 0;
+        }
+
+        int index = 0;
+        for (int y = 0; y < mapHeight; y++) {
+            for (int x = 0; x < mapWidth; x++) {
+                if (tileSpriteStart[index] != tileSpriteStart[index + 1]) {
+                    int blockX1 = Math.max(0, x - 1) >> Map.BLOCK_SIZE_BITS;
+                    int blockX2 = Math.min(mapWidth - 1, x + 1) >> Map.BLOCK_SIZE_BITS;
+                    int blockY1 = Math.max(0, y - 1) >> Map.BLOCK_SIZE_BITS;
+                    int blockY2 = Math.min(mapHeight - 1, y + 1) >> Map.BLOCK_SIZE_BITS;
+                    for (int blockY = blockY1; blockY <= blockY2; blockY++) {
+                        for (int blockX = blockX1; blockX <= blockX2; blockX++) {
+                            skippableBlocks[blockX + blockY * blocksWide] = false;
+                        }
+                    }
+                }
+                index++;
+            }
+        }
+    }
+
+    private void addSprite(Entity entity, TextureAtlas atlas, float interpolation) {
+        if (numSprites == spriteX.length) {
+            int newLength = Math.max(16, numSprites * 2);
+            spriteX = Arrays.copyOf(spriteX, newLength);
+            spriteY = Arrays.copyOf(spriteY, newLength);
+            spriteZ = Arrays.copyOf(spriteZ, newLength);
+            spriteTextureIds = Arrays.copyOf(spriteTextureIds, newLength);
+            spriteTextureScales = Arrays.copyOf(spriteTextureScales, newLength);
+            spriteDepthOffsets = Arrays.copyOf(spriteDepthOffsets, newLength);
+        }
+        if (interpolation >= 1) {
+            spriteX[numSprites] = entity.getX();
+            spriteY[numSprites] = entity.getY();
+            spriteZ[numSprites] = entity.getZ();
+        } else {
+            spriteX[numSprites] = lerp(entity.getPreviousX(), entity.getX(), interpolation);
+            spriteY[numSprites] = lerp(entity.getPreviousY(), entity.getY(), interpolation);
+            spriteZ[numSprites] = lerp(entity.getPreviousZ(), entity.getZ(), interpolation);
+        }
+        spriteTextureIds[numSprites] = atlas.getId(entity.getTexture());
+        spriteTextureScales[numSprites] = entity.getTextureScale();
+        spriteDepthOffsets[numSprites] = entity.getDepthOffset();
+        numSprites++;
+    }
+
+    static float lerp(float from, float to, float t) {
+        return from + (to - from) * t;
+    }
+
+    // Camera
+
+    public float getCameraX() {
+        return cameraX;
+    }
+
+    public float getCameraY() {
+        return cameraY;
+    }
+
+    public float getCameraZ() {
+        return cameraZ;
+    }
+
+    public float getCameraDirection() {
+        return cameraDirection;
+    }
+
+    /**
+     * Checks if the other snapshot has the same camera.
+     */
+    public boolean hasSameCamera(FrameSnapshot other) {
+        return cameraX == other.cameraX && cameraY == other.cameraY && cameraZ == other.cameraZ &&
+                cameraDirection == other.cameraDirection;
+    }
+
+    // Tiles
+
+    /**
+     * Checks if the other snapshot has the same tiles, ignoring their render states.
+     */
+    public boolean hasSameTiles(FrameSnapshot other) {
+        if (defaultFloorTextureId != other.defaultFloorTextureId) {
+            return false;
+        } else if (hasSameTileSource(other)) {
+            return true;
+        }
+        return mapWidth == other.mapWidth && mapHeight == other.mapHeight &&
+                Arrays.equals(tileTypes, other.tileTypes) &&
+                Arrays.equals(tileSubtypes, other.tileSubtypes) &&
+                Arrays.equals(tileTextureIds, other.tileTextureIds);
+    }
+
+    /**
+     * Checks if the other snapshot has the same tile render states, like how far each door is
+     * open.
+     */
+    public boolean hasSameTileRenderStates(FrameSnapshot other) {
+        return hasSameTileSource(other) || Arrays.equals(tileRenderStates, other.tileRenderStates);
+    }
+
+    /**
+     * Checks if the other snapshot has the same skippable blocks. They depend on where the
+     * sprites are, so they can change while the tiles stay the same.
+     */
+    public boolean hasSameSkippableBlocks(FrameSnapshot other) {
+        return blocksWide == other.blocksWide && blocksHigh == other.blocksHigh &&
+                Arrays.equals(skippableBlocks, other.skippableBlocks);
+    }
+
+    /**
+     * Checks if both snapshots copied their tiles from the same map, atlas and tile mod count.
+     */
+    private boolean hasSameTileSource(FrameSnapshot other) {
+        return tileSourceMap != null && tileSourceMap == other.tileSourceMap &&
+                tileSourceAtlas == other.tileSourceAtlas && tileSourceModCount == other.tileSourceModCount;
+    }
+
+    public int getMapWidth() {
+        return mapWidth;
+    }
+
+    public int getMapHeight() {
+        return mapHeight;
+    }
+
+    /**
+     * Gets the index of the tile at the specified location, or -1 if the location is outside
+     * the map.
+     */
+    public int getTileIndex(int x, int y) {
+        if (x < 0 || y < 0 || x >= mapWidth || y >= mapHeight) {
+            return -1;
+        }
+        return x + y * mapWidth;
+    }
+
+    public int[] getTileTypes() {
+        return tileTypes;
+    }
+
+    /**
+     * Gets the tile subtypes. For doors, this is the door type (the key needed to open it).
+     */
+    public int[] getTileSubtypes() {
+        return tileSubtypes;
+    }
+
+    public int[] getTileRenderStates() {
+        return tileRenderStates;
+    }
+
+    public int[] getTileTextureIds() {
+        return tileTextureIds;
+    }
+
+    public int getDefaultFloorTextureId() {
+        return defaultFloorTextureId;
+    }
+
+    /**
+     * Checks if the tile is in a skippable block: every tile in the block is TYPE_NOTHING, and no
+     * tile in or next to the block has a sprite.
+     */
+    public boolean isSkippableBlockAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= mapWidth || y >= mapHeight) {
+            return false;
+        }
+        return skippableBlocks[(x >> Map.BLOCK_SIZE_BITS) + (y >> Map.BLOCK_SIZE_BITS) * blocksWide];
+    }
+
+    // Sprites
+
+    public int getNumSprites() {
+        return numSprites;
+    }
+
+    /**
+     * Checks if a sprite has the same location, texture, scale, and depth offset as a sprite in
+     * the other snapshot.
+     */
+    public boolean isSameSprite(int sprite, FrameSnapshot other, int otherSprite) {
+        return spriteX[sprite] == other.spriteX[otherSprite] &&
+                spriteY[sprite] == other.spriteY[otherSprite] &&
+                spriteZ[sprite] == other.spriteZ[otherSprite] &&
+                spriteTextureIds[sprite] == other.spriteTextureIds[otherSprite] &&
+                spriteTextureScales[sprite] == other.spriteTextureScales[otherSprite] &&
+                spriteDepthOffsets[sprite] == other.spriteDepthOffsets[otherSprite];
+    }
+
+    public int[] getTileSpriteStart() {
+        return tileSpriteStart;
+    }
+
+    public float[] getSpriteX() {
+        return spriteX;
+    }
+
+    public float[] getSpriteY() {
+        return spriteY;
+    }
+
+    public float[] getSpriteZ() {
+        return spriteZ;
+    }
+
+    public int[] getSpriteTextureIds() {
+        return spriteTextureIds;
+    }
+
+    public float[] getSpriteTextureScales() {
+        return spriteTextureScales;
+    }
+
+    public float[] getSpriteDepthOffsets() {
+        return spriteDepthOffsets;
+    }
+}
@@ -2,20 +2,21 @@ package com.brackeen.scared;
 
 import com.brackeen.app.App;
 import com.brackeen.app.BitmapFont;
+import com.brackeen.app.InputSnapshot;
+import com.brackeen.app.Profiler;
 import com.brackeen.app.audio.AudioEngine;
 import com.brackeen.app.view.ImageView;
 import com.brackeen.app.view.Label;
+import com.brackeen.app.view.ProfilerGraph;
 import com.brackeen.app.view.Scene;
 import com.brackeen.app.view.View;
-import com.brackeen.scared.entity.BlastMark;
-import com.brackeen.scared.entity.Enemy;
-import com.brackeen.scared.entity.Entity;
 import com.brackeen.scared.entity.Key;
 import com.brackeen.scared.entity.Player;
 
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Toolkit;
 import java.awt.event.FocusEvent;
@@ -27,9 +28,11 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 
 public class GameScene extends Scene {
 
@@ -37,23 +40,6 @@ public class GameScene extends Scene {
 
     public static final int NUM_LEVELS = 7;
 
-    private static final float MIN_RUN_VELOCITY = -0.055f;
-    private static final float MAX_RUN_VELOCITY = 0.078f;
-    private static final float MIN_STRAFE_VELOCITY = -0.055f;
-    private static final float MAX_STRAFE_VELOCITY = 0.055f;
-    private static final float MAX_TURN_VELOCITY = 360 / 128f;
-    private static final float MIN_TURN_VELOCITY = -MAX_TURN_VELOCITY;
-
-    private static final float RUN_ACCEL = 0.0047f;
-    private static final float RUN_DECEL = 0.0047f;
-    private static final float STRAFE_ACCEL = 0.0039f;
-    private static final float STRAFE_DECEL = 0.0039f;
-    private static final float TURN_ACCEL = 360 / 680f;
-    private static final float TURN_DECEL = 360 / 512f;
-
-    private static final int FIRE_COUNTDOWN = 15;
-    private static final int GUN_BLAST_COUNTDOWN = 6;
-
     private static final int ACTION_NONE = 0;
     private static final int ACTION_NEW_LEVEL = 1;
     private static final int ACTION_WIN = 2;
@@ -65,30 +51,23 @@ public class GameScene extends Scene {
 
     private final HashMap<String, SoftTexture> textureCache;
 
-    private boolean keyLeft = false;
-    private boolean keyRight = false;
-    private boolean keyDown = false;
-    private boolean keyUp = false;
-    private boolean keyStrafeLeft = false;
-    private boolean keyStrafeRight = false;
-    private boolean keyStrafeModifier = false;
+    // Movement keys are read from the app's input snapshot each tick. Fire and tab are tracked
+    // from key events, because they are cleared when used.
     private boolean keyFire = false;
     private boolean keyTab = false;
     private boolean mousePressed = false;
 
     private SoftRender3D renderer;
     private Map map;
-    private CollisionDetection collisionDetection;
+    private Simulation simulation;
+    private Random random = new Random();
+    private InputRecording recording;
+    private File recordingFile;
     private int level;
     private boolean hasWon;
     private boolean showCrosshair = true;
     private Stats stats = new Stats();
 
-    private float runVelocity = 0;
-    private float strafeVelocity = 0;
-    private float turnVelocity = 0;
-
-    private int ticksUntilRefire;
     private int nextAction = ACTION_NONE;
     private int nextActionTicksRemaining;
 
@@ -112,6 +91,7 @@ public class GameScene extends Scene {
     private Label secretsLabel;
     private Label levelLabel;
     private Label fpsLabel;
+    private ProfilerGraph profilerGraph;
     private int ticksUntilHideSpecialStats;
     private ImageView gunView;
     private ImageView gunBlastView;
@@ -141,6 +121,14 @@ public class GameScene extends Scene {
 
         this.renderer = new SoftRender3D(textureCache);
         renderer.setDepthShadingEnabled(Settings.getBoolean(Settings.DEPTH_SHADING, true));
+        // Off by default, because a pipelined frame is shown a frame late
+        renderer.setPipelinedRenderingEnabled(Settings.getBoolean(Settings.PIPELINED_RENDERING, false));
+        renderer.setDirtyFrameTrackingEnabled(true);
+        // An uncapped frame rate aims for at least the simulation rate
+        float frameRate = app.getFrameRate() > 0 ? app.getFrameRate() : app.getSimulationRate();
+        renderer.setTargetFrameRate(Settings.getFloat(Settings.TARGET_FRAME_RATE, frameRate));
+        renderer.setDynamicResolutionEnabled(Settings.getBoolean(Settings.DYNAMIC_RESOLUTION, false));
+        renderer.setProfiler(app.getProfiler());
         addSubview(renderer);
 
         // Crosshair
@@ -224,6 +212,14 @@ public class GameScene extends Scene {
         fpsLabel.setVisible(false);
         addSubview(fpsLabel);
 
+        // Frame-time graph
+        profilerGraph = new ProfilerGraph(app.getProfiler(), App.PROFILE_STAGE_FRAME,
+                App.PROFILE_STAGE_TICK, "view", App.PROFILE_STAGE_DRAW, App.PROFILE_STAGE_SHOW);
+        profilerGraph.setSize(128, 48);
+        profilerGraph.setAnchor(1, 0);
+        profilerGraph.setVisible(false);
+        addSubview(profilerGraph);
+
         // Focus message
         focusLostLabel = new Label(messageFont, "Click to continue");
         focusLostLabel.setAnchor(0.5f, 0.5f);
@@ -384,6 +380,7 @@ public class GameScene extends Scene {
 
         // FPS
         fpsLabel.setLocation(getWidth() - UI_SPACING, UI_SPACING);
+        profilerGraph.setLocation(getWidth() - UI_SPACING, UI_SPACING * 2 + fpsLabel.getHeight());
 
         // UI Labels
         focusLostLabel.setLocation(getWidth() / 2, getHeight() / 2);
@@ -406,6 +403,7 @@ public class GameScene extends Scene {
     }
 
     private void setLevel(int level) {
+        stopRecording();
         this.level = level;
 
         Player oldPlayer = null;
@@ -415,14 +413,14 @@ public class GameScene extends Scene {
         }
 
         try {
-            map = new Map(textureCache, messageQueue, "/maps/level" + level + ".txt", oldPlayer, stats);
+            map = new Map(textureCache, messageQueue, "/maps/level" + level + ".txt", oldPlayer, stats, random);
         } catch (IOException ex) {
             ex.printStackTrace();
             App.getApp().popScene();
             return;
         }
 
-        collisionDetection = new CollisionDetection(map);
+        simulation = new Simulation(map, stats, blastTextures);
         renderer.setMap(map);
 
         if (level != 0) {
@@ -430,9 +428,6 @@ public class GameScene extends Scene {
         }
 
         resetKeys();
-        runVelocity = 0;
-        strafeVelocity = 0;
-        turnVelocity = 0;
 
         hasWon = false;
         if (gameOverMessage != null) {
@@ -449,35 +444,10 @@ public class GameScene extends Scene {
 
     private void keyDown(int keyCode, boolean down) {
         switch (keyCode) {
-            case KeyEvent.VK_LEFT:
-            case KeyEvent.VK_A:
-                keyLeft = down;
-                break;
-            case KeyEvent.VK_RIGHT:
-            case KeyEvent.VK_D:
-                keyRight = down;
-                break;
-            case KeyEvent.VK_UP:
-            case KeyEvent.VK_W:
-                keyUp = down;
-                break;
-            case KeyEvent.VK_DOWN:
-            case KeyEvent.VK_S:
-                keyDown = down;
-                break;
             case KeyEvent.VK_SPACE:
             case KeyEvent.VK_Z:
                 keyFire = down;
                 break;
-            case KeyEvent.VK_Q:
-                keyStrafeLeft = down;
-                break;
-            case KeyEvent.VK_E:
-                keyStrafeRight = down;
-                break;
-            case KeyEvent.VK_C:
-                keyStrafeModifier = down;
-                break;
             case KeyEvent.VK_TAB:
             case KeyEvent.VK_BACK_QUOTE:
                 keyTab = down;
@@ -507,6 +477,16 @@ public class GameScene extends Scene {
                     "volume x     Set audio volume (from 0 to " + VOLUME_SCALE + ")\n" +
                     "shading      Enable/disable depth shading\n" +
                     "scaling      Enable/disable auto pixel scaling\n" +
+                    "resolution   Enable/disable dynamic resolution\n" +
+                    "resolution x Hold x frames per second with dynamic resolution\n" +
+                    "framerate x  Set the frame rate (0 for uncapped)\n" +
+                    "pipeline     Enable/disable pipelined rendering (adds a frame of latency)\n" +
+                    "overdraw     Enable/disable overdraw counting (shown in debug)\n" +
+                    "perf         Start profiling, or show frame stage times\n" +
+                    "perf graph   Show/hide frame time graph\n" +
+                    "perf off     Stop profiling\n" +
+                    "record file  Restart the level and record its input to file\n" +
+                    "record stop  Stop recording (cheats are disabled while recording)\n" +
                     "level x      Skip to level x (from 1 to " + NUM_LEVELS + ")\n" +
                     "ammo         Give yourself some ammo\n" +
                     "health       Give yourself a health kit\n" +
@@ -528,7 +508,11 @@ public class GameScene extends Scene {
                     "facing=" + dx + "," + dy + "\n" +
                     "angle=" + String.format("%.2f", player.getDirection()) + "\n" +
                     "actions=" + map.getNumActions() + "\n" +
-                    "entities=" + map.getNumEntities());
+                    "entities=" + map.getNumEntities() + "\n" +
+                    "frameTime=" + String.format("%.2f", App.getApp().getFrameTimeMean()) + "ms " +
+                    "sd=" + String.format("%.2f", Math.sqrt(App.getApp().getFrameTimeVariance())) + "ms" +
+                    (renderer.isOverdrawCountingEnabled() ?
+                            "\noverdraw=" + String.format("%.2f", renderer.getOverdraw()) : ""));
         } else if ("SHADING".equalsIgnoreCase(command)) {
             renderer.setDepthShadingEnabled(!renderer.isDepthShadingEnabled());
             Settings.putBoolean(Settings.DEPTH_SHADING, renderer.isDepthShadingEnabled());
@@ -537,6 +521,83 @@ public class GameScene extends Scene {
             App.getApp().setAutoPixelScale(!App.getApp().isAutoPixelScale());
             Settings.putBoolean(Settings.AUTO_PIXEL_SCALE, App.getApp().isAutoPixelScale());
             return "Auto pixel scaling is now " + (App.getApp().isAutoPixelScale() ? "on" : "off");
+        } else if ("RESOLUTION".equalsIgnoreCase(command)) {
+            renderer.setDynamicResolutionEnabled(!renderer.isDynamicResolutionEnabled());
+            Settings.putBoolean(Settings.DYNAMIC_RESOLUTION, renderer.isDynamicResolutionEnabled());
+            return "Dynamic resolution is now " + (renderer.isDynamicResolutionEnabled() ? "on" : "off");
+        } else if (command.length() > 10 && "RESOLUTION".equalsIgnoreCase(command.substring(0, 10))) {
+            float targetFrameRate;
+            try {
+                targetFrameRate = Float.parseFloat(command.substring(10).trim());
+            } catch (NumberFormatException ex) {
+                targetFrameRate = -1;
+            }
+
+            if (targetFrameRate > 0) {
+                renderer.setTargetFrameRate(targetFrameRate);
+                renderer.setDynamicResolutionEnabled(true);
+                Settings.putFloat(Settings.TARGET_FRAME_RATE, targetFrameRate);
+                Settings.putBoolean(Settings.DYNAMIC_RESOLUTION, true);
+                return "Dynamic resolution is now on, at " + Math.round(targetFrameRate) + " fps";
+            } else {
+                return "Invalid frame rate";
+            }
+        } else if (command.length() > 9 && "FRAMERATE".equalsIgnoreCase(command.substring(0, 9))) {
+            float frameRate;
+            try {
+                frameRate = Float.parseFloat(command.substring(9).trim());
+            } catch (NumberFormatException ex) {
+                frameRate = -1;
+            }
+
+            if (frameRate >= 0) {
+                App.getApp().setFrameRate(frameRate);
+                Settings.putFloat(Settings.FRAME_RATE, App.getApp().getFrameRate());
+                if (App.getApp().getFrameRate() <= 0) {
+                    return "Frame rate is now uncapped";
+                } else {
+                    return "Frame rate is now " + Math.round(App.getApp().getFrameRate()) + " fps";
+                }
+            } else {
+                return "Invalid frame rate";
+            }
+        } else if ("PIPELINE".equalsIgnoreCase(command)) {
+            renderer.setPipelinedRenderingEnabled(!renderer.isPipelinedRenderingEnabled());
+            Settings.putBoolean(Settings.PIPELINED_RENDERING, renderer.isPipelinedRenderingEnabled());
+            return "Pipelined rendering is now " + (renderer.isPipelinedRenderingEnabled() ? "on" : "off");
+        } else if ("OVERDRAW".equalsIgnoreCase(command)) {
+            renderer.setOverdrawCountingEnabled(!renderer.isOverdrawCountingEnabled());
+            return "Overdraw counting is now " + (renderer.isOverdrawCountingEnabled() ? "on" : "off");
+        } else if ("PERF".equalsIgnoreCase(command)) {
+            Profiler profiler = App.getApp().getProfiler();
+            if (profiler.isEnabled()) {
+                // The view stage includes the render stages unless rendering is pipelined
+                return profiler.getReport();
+            } else {
+                profiler.setEnabled(true);
+                return "Profiling is now on. Type 'perf' again for stage times";
+            }
+        } else if ("PERF GRAPH".equalsIgnoreCase(command)) {
+            profilerGraph.setVisible(!profilerGraph.isVisible());
+            if (profilerGraph.isVisible()) {
+                App.getApp().getProfiler().setEnabled(true);
+                return "Frame time graph is now on (gray: frame, blue: tick, green: 3D view, yellow: HUD, red: show)";
+            } else {
+                return "Frame time graph is now off";
+            }
+        } else if ("PERF OFF".equalsIgnoreCase(command)) {
+            App.getApp().getProfiler().setEnabled(false);
+            profilerGraph.setVisible(false);
+            return "Profiling is now off";
+        } else if ("RECORD STOP".equalsIgnoreCase(command)) {
+            return stopRecording();
+        } else if (command.length() > 6 && "RECORD".equalsIgnoreCase(command.substring(0, 6))) {
+            File file = new File(command.substring(6).trim());
+            startRecording(file);
+            return "Recording level " + (level + 1) + " to " + file;
+        } else if (recording != null && isCheatCommand(command)) {
+            // Cheats aren't in the recording, so a replay would diverge
+            return "Cheats are disabled while recording";
         } else if ("FREEZE".equalsIgnoreCase(command)) {
             player.setFreezeEnemies(!player.isFreezeEnemies());
             if (player.isFreezeEnemies()) {
@@ -619,6 +680,7 @@ public class GameScene extends Scene {
 
         if (paused) {
             resetKeys();
+            holdPreviousState();
             return;
         }
 
@@ -634,17 +696,27 @@ public class GameScene extends Scene {
 
                 nextAction = ACTION_NONE;
             }
+            holdPreviousState();
             return;
         }
 
+        int input = getInput();
+        float aimAngle = renderer.getAngleAt((int) crosshair.getX());
+        if (recording != null) {
+            recording.add(input, aimAngle);
+        }
+
         // Move entities, handle actions
-        map.tick();
+        simulation.tickMap();
 
         // Move player
-        tickPlayer();
+        tickPlayer(input, aimAngle);
         Player player = map.getPlayer();
         renderer.setCamera(player.getX(), player.getY(), player.getZ(), player.getDirection());
+        renderer.setPreviousCamera(player.getPreviousX(), player.getPreviousY(), player.getPreviousZ(),
+                player.getPreviousDirection());
         if (map.isExitFound() && !hasWon) {
+            stopRecording();
             if (level < NUM_LEVELS - 1) {
                 nextAction = ACTION_NEW_LEVEL;
             } else {
@@ -687,6 +759,28 @@ public class GameScene extends Scene {
         updateGunLocation();
     }
 
+    /**
+     * Makes the previous state of the camera and entities the same as their current state, for
+     * ticks where the simulation doesn't run, so frames don't interpolate between stale states.
+     */
+    private void holdPreviousState() {
+        map.storePreviousEntityStates();
+        Player player = map.getPlayer();
+        renderer.setCamera(player.getX(), player.getY(), player.getZ(), player.getDirection());
+    }
+
+    @Override
+    public void onDraw(Graphics2D g) {
+        // When frames are drawn more often than the simulation ticks, draw between ticks
+        App app = App.getApp();
+        float frameRate = app.getFrameRate();
+        if (frameRate <= 0 || frameRate > app.getSimulationRate()) {
+            renderer.setInterpolation(app.getTickInterpolation());
+        } else {
+            renderer.setInterpolation(1);
+        }
+    }
+
     private void updateGunLocation() {
         if (map == null) {
             return;
@@ -702,10 +796,10 @@ public class GameScene extends Scene {
         displayWeaponOffset = Math.min(displayWeaponOffset, getWidth() - gunView.getWidth());
 
         // Make the gun bob
-        float velocity = Math.abs(runVelocity) + Math.abs(strafeVelocity);
-        velocity = Math.min(velocity, MAX_RUN_VELOCITY);
+        float velocity = Math.abs(simulation.getRunVelocity()) + Math.abs(simulation.getStrafeVelocity());
+        velocity = Math.min(velocity, Simulation.MAX_RUN_VELOCITY);
         double angle = (System.currentTimeMillis() / 80.0) % (Math.PI * 2);
-        int maxBob = (int) Math.ceil(gunView.getHeight() * 0.75f * MAX_RUN_VELOCITY);
+        int maxBob = (int) Math.ceil(gunView.getHeight() * 0.75f * Simulation.MAX_RUN_VELOCITY);
         int bob = (int) Math.round(gunView.getHeight() * 0.75f * velocity * (Math.sin(angle) + 0.5f));
 
         float x = gunView.getWidth() * 0.4f + displayWeaponOffset;
@@ -741,61 +835,83 @@ public class GameScene extends Scene {
     }
 
     private void resetKeys() {
-        keyLeft = false;
-        keyRight = false;
-        keyDown = false;
-        keyUp = false;
-        keyStrafeLeft = false;
-        keyStrafeRight = false;
-        keyStrafeModifier = false;
         keyFire = false;
         mousePressed = false;
+        App.getApp().clearKeysDown();
         crosshair.setLocation(getWidth() / 2, getHeight() / 2);
     }
 
-    private void fire() {
-        Player player = map.getPlayer();
-        if (!player.isAlive()) {
-            return;
+    private int getInput() {
+        InputSnapshot snapshot = App.getApp().getInputSnapshot();
+        int input = 0;
+        if (snapshot.isKeyDown(KeyEvent.VK_LEFT) || snapshot.isKeyDown(KeyEvent.VK_A)) {
+            input |= Simulation.INPUT_LEFT;
         }
-
-        if (player.getAmmo() <= 0) {
-            playSound("/sound/no_ammo.wav");
-            return;
+        if (snapshot.isKeyDown(KeyEvent.VK_RIGHT) || snapshot.isKeyDown(KeyEvent.VK_D)) {
+            input |= Simulation.INPUT_RIGHT;
         }
-
-        stats.numShotsFired++;
-        playSound("/sound/laser1.wav");
-
-        if (!player.isGodMode()) {
-            player.setAmmo(player.getAmmo() - 1);
+        if (snapshot.isKeyDown(KeyEvent.VK_UP) || snapshot.isKeyDown(KeyEvent.VK_W)) {
+            input |= Simulation.INPUT_UP;
+        }
+        if (snapshot.isKeyDown(KeyEvent.VK_DOWN) || snapshot.isKeyDown(KeyEvent.VK_S)) {
+            input |= Simulation.INPUT_DOWN;
+        }
+        if (snapshot.isKeyDown(KeyEvent.VK_Q)) {
+            input |= Simulation.INPUT_STRAFE_LEFT;
+        }
+        if (snapshot.isKeyDown(KeyEvent.VK_E)) {
+            input |= Simulation.INPUT_STRAFE_RIGHT;
         }
-        gunBlastCountdown = GUN_BLAST_COUNTDOWN;
+        if (snapshot.isKeyDown(KeyEvent.VK_C)) {
+            input |= Simulation.INPUT_STRAFE_MODIFIER;
+        }
+        if (keyFire || mousePressed) {
+            input |= Simulation.INPUT_FIRE;
+        }
+        return input;
+    }
 
-        int weaponAimX = (int) crosshair.getX();
-        float aimAngle = renderer.getAngleAt(weaponAimX);
-        aimAngle += Math.random() * 4 - 2; // +/- 2 degrees
+    /**
+     * Restarts the level, with a new random seed, and records its input until the level ends or
+     * stopRecording() is called.
+     */
+    private void startRecording(File file) {
+        long seed = System.nanoTime();
+        random = new Random(seed);
+        setLevel(level);
+        recording = new InputRecording(level, seed, map.getPlayer());
+        recordingFile = file;
+    }
 
-        Point2D.Float p = map.getWallCollision(player.getX(), player.getY(), aimAngle);
-        if (p == null) {
-            return;
-        }
+    /**
+     * Checks if a console command changes the player's state in a way a recording doesn't
+     * capture. The level command isn't one, because changing the level stops the recording.
+     */
+    private static boolean isCheatCommand(String command) {
+        return "FREEZE".equalsIgnoreCase(command) || "CHEAT".equalsIgnoreCase(command) ||
+                "AMMO".equalsIgnoreCase(command) || "HEALTH".equalsIgnoreCase(command) ||
+                (command.length() > 3 && "KEY".equalsIgnoreCase(command.substring(0, 3)));
+    }
 
-        boolean hitSomething = false;
-        List<Entity> hitEnemies = map.getCollisions(Enemy.class, player.getX(), player.getY(), p.x, p.y);
-        if (hitEnemies.size() > 0) {
-            for (Entity entity : hitEnemies) {
-                if (entity instanceof Enemy) {
-                    hitSomething |= ((Enemy) entity).hurt(6 + (int) (Math.random() * 3)); //6..8
-                }
-            }
+    /**
+     * Writes the recording, if any. Returns a description of the result.
+     */
+    private String stopRecording() {
+        if (recording == null) {
+            return "Not recording";
         }
-        if (hitSomething) {
-            stats.numShotsFiredHit++;
-        } else {
-            // Miss - show the hit on the wall
-            map.addEntity(new BlastMark(blastTextures, p.x, p.y, GUN_BLAST_COUNTDOWN * 3 / 2));
+        String result;
+        try {
+            recording.write(recordingFile);
+            result = String.format(Locale.US, "Recorded %d ticks to %s (state %016x)",
+                    recording.getNumTicks(), recordingFile, simulation.getStateHash());
+        } catch (IOException ex) {
+            result = "Couldn't write " + recordingFile + ": " + ex.getMessage();
         }
+        App.log(result);
+        recording = null;
+        recordingFile = null;
+        return result;
     }
 
     private void copyLevelStats() {
@@ -837,7 +953,7 @@ public class GameScene extends Scene {
         addSubview(gameOverMessage);
     }
 
-    private void tickPlayer() {
+    private void tickPlayer(int input, float aimAngle) {
         Player player = map.getPlayer();
 
         if (hasWon) {
@@ -859,7 +975,7 @@ public class GameScene extends Scene {
             return;
         } else if (!player.isAlive()) {
             final int gameOverExtraTicks = 60;
-            player.setZ(Math.max(player.getZ() - 0.008f, player.getRadius()));
+            simulation.tickDeadPlayer();
             gameOverTicksRemaining--;
             if (gameOverTicksRemaining > -gameOverExtraTicks) {
                 mousePressed = false;
@@ -886,124 +1002,8 @@ public class GameScene extends Scene {
             gameOverTicksRemaining = 60;
         }
 
-        // Handle firing
-        if (keyFire || mousePressed) {
-            if (ticksUntilRefire <= 0) {
-                fire();
-                ticksUntilRefire = FIRE_COUNTDOWN;
-            }
-        }
-        if (ticksUntilRefire > 0) {
-            ticksUntilRefire--;
-        }
-
-        // Move player
-        boolean keyRun = false;
-        boolean keyStrafe = false;
-        boolean keyTurn = false;
-        if (keyUp) {
-            keyRun = true;
-            runVelocity += RUN_ACCEL;
-
-            if (runVelocity > MAX_RUN_VELOCITY) {
-                runVelocity = MAX_RUN_VELOCITY;
-            }
-        }
-
-        if (keyDown) {
-            keyRun = true;
-            runVelocity -= RUN_ACCEL;
-
-            if (runVelocity < MIN_RUN_VELOCITY) {
-                runVelocity = MIN_RUN_VELOCITY;
-            }
-        }
-
-        if (keyStrafeLeft || (keyStrafeModifier && keyLeft)) {
-            keyStrafe = true;
-            strafeVelocity += STRAFE_ACCEL;
-
-            if (strafeVelocity > MAX_STRAFE_VELOCITY) {
-                strafeVelocity = MAX_STRAFE_VELOCITY;
-            }
+        if (simulation.tickPlayer(input, aimAngle)) {
+            gunBlastCountdown = Simulation.GUN_BLAST_COUNTDOWN;
         }
-
-        if (keyLeft && !keyStrafeModifier) {
-            keyTurn = true;
-            turnVelocity += TURN_ACCEL;
-
-            if (turnVelocity > MAX_TURN_VELOCITY) {
-                turnVelocity = MAX_TURN_VELOCITY;
-            }
-        }
-
-        if (keyStrafeRight || (keyStrafeModifier && keyRight)) {
-            keyStrafe = true;
-            strafeVelocity -= STRAFE_ACCEL;
-
-            if (strafeVelocity < MIN_STRAFE_VELOCITY) {
-                strafeVelocity = MIN_STRAFE_VELOCITY;
-            }
-        }
-
-        if (keyRight && !keyStrafeModifier) {
-            keyTurn = true;
-            turnVelocity -= TURN_ACCEL;
-
-            if (turnVelocity < MIN_TURN_VELOCITY) {
-                turnVelocity = MIN_TURN_VELOCITY;
-            }
-        }
-
-        if (!keyRun && runVelocity != 0) {
-            if (Math.abs(runVelocity) <= RUN_DECEL) {
-                runVelocity = 0;
-            } else if (runVelocity < 0) {
-                runVelocity += RUN_DECEL;
-            } else {
-                runVelocity -= RUN_DECEL;
-            }
-        }
-
-        if (!keyStrafe && strafeVelocity != 0) {
-            if (Math.abs(strafeVelocity) <= STRAFE_DECEL) {
-                strafeVelocity = 0;
-            } else if (strafeVelocity < 0) {
-                strafeVelocity += STRAFE_DECEL;
-            } else {
-                strafeVelocity -= STRAFE_DECEL;
-            }
-        }
-
-        if (!keyTurn && turnVelocity != 0) {
-            if (Math.abs(turnVelocity) <= TURN_DECEL) {
-                turnVelocity = 0;
-            } else if (turnVelocity < 0) {
-                turnVelocity += TURN_DECEL;
-            } else {
-                turnVelocity -= TURN_DECEL;
-            }
-        }
-
-        if (turnVelocity != 0) {
-            player.setDirection((player.getDirection() + turnVelocity) % 360);
-        }
-
-        float strafeDir = player.getDirection() + 90;
-        float cosPlayerDir = (float) Math.cos(Math.toRadians(player.getDirection()));
-        float sinPlayerDir = (float) Math.sin(Math.toRadians(player.getDirection()));
-        float cosPlayerStrafeDir = (float) Math.cos(Math.toRadians(strafeDir));
-        float sinPlayerStrafeDir = (float) Math.sin(Math.toRadians(strafeDir));
-
-        float dx = cosPlayerDir * runVelocity;
-        float dy = -sinPlayerDir * runVelocity;
-        dx += cosPlayerStrafeDir * strafeVelocity;
-        dy += -sinPlayerStrafeDir * strafeVelocity;
-
-        if (dx == 0 && dy == 0) {
-            return;
-        }
-
-        collisionDetection.move(player, player.getX() + dx, player.getY() + dy, true, true);
     }
 }
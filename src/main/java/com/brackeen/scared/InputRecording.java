@@ -0,0 +1,136 @@
+package com.brackeen.scared;
+
+import com.brackeen.scared.entity.Player;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * The input of every tick of a level, with the seed of the game's random source and the player
+ * state carried in from the previous level, so the level can be replayed exactly by a Simulation.
+ *
+ * The file is a header, then each tick's Simulation.INPUT flags as a short, followed by the aim
+ * angle as a float only for ticks with INPUT_FIRE.
+ */
+public class InputRecording {
+
+    private static final int MAGIC = 0x53435244; // "SCRD"
+    private static final int VERSION = 1;
+
+    private final int level;
+    private final long seed;
+    private final int health;
+    private final int ammo;
+    private final boolean godMode;
+    private final boolean freezeEnemies;
+    private short[] inputs = new short[1024];
+    private float[] aimAngles = new float[1024];
+    private int numTicks;
+
+    /**
+     * Creates an empty recording of a level that was just created with a random source of the
+     * seed.
+     */
+    public InputRecording(int level, long seed, Player player) {
+        this(level, seed, player.getHealth(), player.getAmmo(), player.isGodMode(), player.isFreezeEnemies());
+    }
+
+    private InputRecording(int level, long seed, int health, int ammo, boolean godMode, boolean freezeEnemies) {
+        this.level = level;
+        this.seed = seed;
+        this.health = health;
+        this.ammo = ammo;
+        this.godMode = godMode;
+        this.freezeEnemies = freezeEnemies;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getNumTicks() {
+        return numTicks;
+    }
+
+    public int getInput(int tick) {
+        return inputs[tick];
+    }
+
+    public float getAimAngle(int tick) {
+        return aimAngles[tick];
+    }
+
+    public void add(int input, float aimAngle) {
+        if (numTicks == inputs.length) {
+            inputs = Arrays.copyOf(inputs, numTicks * 2);
+            aimAngles = Arrays.copyOf(aimAngles, numTicks * 2);
+        }
+        inputs[numTicks] = (short) input;
+        aimAngles[numTicks] = (input & Simulation.INPUT_FIRE) != 0 ? aimAngle : 0;
+        numTicks++;
+    }
+
+    /**
+     * Creates the map of the level as it was when recording started.
+     */
+    public Map createMap(HashMap<String, SoftTexture> textureCache, MessageQueue messageQueue, Stats stats)
+            throws IOException {
+        Map map = new Map(textureCache, messageQueue, "/maps/level" + level + ".txt", null, stats, new Random(seed));
+        Player player = map.getPlayer();
+        player.setHealth(health);
+        player.setAmmo(ammo);
+        player.setGodMode(godMode);
+        player.setFreezeEnemies(freezeEnemies);
+        return map;
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(level);
+            out.writeLong(seed);
+            out.writeInt(health);
+            out.writeInt(ammo);
+            out.writeBoolean(godMode);
+            out.writeBoolean(freezeEnemies);
+            out.writeInt(numTicks);
+            for (int i = 0; i < numTicks; i++) {
+                out.writeShort(inputs[i]);
+                if ((inputs[i] & Simulation.INPUT_FIRE) != 0) {
+                    out.writeFloat(aimAngles[i]);
+                }
+            }
+        }
+    }
+
+    public static InputRecording read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a recording: " + file);
+            }
+            InputRecording recording = new InputRecording(in.readInt(), in.readLong(), in.readInt(), in.readInt(),
+                    in.readBoolean(), in.readBoolean());
+            int numTicks = in.readInt();
+            for (int i = 0; i < numTicks; i++) {
+                int input = in.readShort();
+                float aimAngle = (input & Simulation.INPUT_FIRE) != 0 ? in.readFloat() : 0;
+                recording.add(input, aimAngle);
+            }
+            return recording;
+        }
+    }
+}
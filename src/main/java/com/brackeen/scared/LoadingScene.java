@@ -11,6 +11,35 @@ import java.util.List;
 
 public class LoadingScene extends BaseConsoleScene {
 
+    // All wall textures must be a size that is a power-of-two. 128x128, 64x64, etc.
+    static final String[] WALL_TEXTURES = {
+            "door00.png",
+            "door01.png",
+            "door02.png",
+            "door03.png",
+            "exit00.png",
+            "exit01.png",
+            "generator00.png",
+            "generator01.png",
+            "wall00.png",
+            "wall01.png",
+            "wall02.png",
+            "wall03.png",
+            "wall04.png",
+            "wall05.png",
+            "wall06.png",
+            "wall07.png",
+            "wall08.png",
+            "wall09.png",
+            "wall10.png",
+            "wall11.png",
+            "wall12.png",
+            "wall13.png",
+            "wall14.png",
+            "wall15.png",
+            "window00.png",
+    };
+
     private final HashMap<String, SoftTexture> textureCache = new HashMap<>();
     private List<Runnable> itemsToLoad;
     private List<BufferedImage> loadedAssets = new ArrayList<>(); // Keep a reference until GameScene is loaded
@@ -81,17 +110,8 @@ public class LoadingScene extends BaseConsoleScene {
         itemsToLoad.add(new Runnable() {
             @Override
             public void run() {
-                cacheTexture("/sprites/ammo.png");
-                cacheTexture("/sprites/blast1.png");
-                cacheTexture("/sprites/blast2.png");
-                cacheTexture("/sprites/blast3.png");
-                cacheTexture("/sprites/key01.png");
-                cacheTexture("/sprites/key02.png");
-                cacheTexture("/sprites/key03.png");
-                cacheTexture("/sprites/medkit.png");
-                cacheTexture("/sprites/nuclear.png");
-                for (int i = 0; i < Enemy.NUM_IMAGES; i++) {
-                    cacheTexture("/enemy/" + i + ".png");
+                for (String textureName : getSpriteTextureNames()) {
+                    cacheTexture(textureName);
                 }
             }
         });
@@ -100,60 +120,56 @@ public class LoadingScene extends BaseConsoleScene {
         itemsToLoad.add(new Runnable() {
             @Override
             public void run() {
-                // All textures must be a size that is a power-of-two. 128x128, 64x64, etc.
-                String[] textures = {
-                        "door00.png",
-                        "door01.png",
-                        "door02.png",
-                        "door03.png",
-                        "exit00.png",
-                        "exit01.png",
-                        "generator00.png",
-                        "generator01.png",
-                        "wall00.png",
-                        "wall01.png",
-                        "wall02.png",
-                        "wall03.png",
-                        "wall04.png",
-                        "wall05.png",
-                        "wall06.png",
-                        "wall07.png",
-                        "wall08.png",
-                        "wall09.png",
-                        "wall10.png",
-                        "wall11.png",
-                        "wall12.png",
-                        "wall13.png",
-                        "wall14.png",
-                        "wall15.png",
-                        "window00.png",
-                };
-
-                // Create mip-maps
-                final int mipMapCount = 3;
-                for (String textureName : textures) {
+                for (String textureName : WALL_TEXTURES) {
                     String fullname = "/textures/" + textureName;
                     SoftTexture texture = cacheTexture(fullname, textureName);
-
-                    SoftTexture.DownscaleType downscaleType = SoftTexture.DownscaleType.WEIGHTED_EVEN;
-                    // Hack: Sharpen on odd pixels on these two textures to make their highlights look better
-                    if ("wall01.png".equals(textureName) || "wall06.png".equals(textureName)) {
-                        downscaleType = SoftTexture.DownscaleType.WEIGHTED_ODD;
-                    }
-
-                    for (int i = 0; i < mipMapCount; i++) {
-                        texture.createHalfSizeTexture(downscaleType);
-                        texture = texture.getHalfSizeTexture();
-                        if (texture == null) {
-                            break;
-                        }
-                        downscaleType = SoftTexture.DownscaleType.AVERAGE;
-                    }
+                    createMipMaps(texture, textureName);
                 }
             }
         });
     }
 
+    /**
+     * Creates the mip-maps of a wall texture.
+     */
+    static void createMipMaps(SoftTexture texture, String textureName) {
+        final int mipMapCount = 3;
+        SoftTexture.DownscaleType downscaleType = SoftTexture.DownscaleType.WEIGHTED_EVEN;
+        // Hack: Sharpen on odd pixels on these two textures to make their highlights look better
+        if ("wall01.png".equals(textureName) || "wall06.png".equals(textureName)) {
+            downscaleType = SoftTexture.DownscaleType.WEIGHTED_ODD;
+        }
+
+        for (int i = 0; i < mipMapCount; i++) {
+            texture.createHalfSizeTexture(downscaleType);
+            texture = texture.getHalfSizeTexture();
+            if (texture == null) {
+                break;
+            }
+            downscaleType = SoftTexture.DownscaleType.AVERAGE;
+        }
+    }
+
+    /**
+     * Gets the names of the sprite textures, which are cached by their full name.
+     */
+    static List<String> getSpriteTextureNames() {
+        List<String> names = new ArrayList<>();
+        names.add("/sprites/ammo.png");
+        names.add("/sprites/blast1.png");
+        names.add("/sprites/blast2.png");
+        names.add("/sprites/blast3.png");
+        names.add("/sprites/key01.png");
+        names.add("/sprites/key02.png");
+        names.add("/sprites/key03.png");
+        names.add("/sprites/medkit.png");
+        names.add("/sprites/nuclear.png");
+        for (int i = 0; i < Enemy.NUM_IMAGES; i++) {
+            names.add("/enemy/" + i + ".png");
+        }
+        return names;
+    }
+
     private SoftTexture cacheTexture(String name) {
         return cacheTexture(name, name);
     }
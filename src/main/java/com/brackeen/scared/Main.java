@@ -25,6 +25,7 @@ public class Main extends App {
         setAppName("Scared");
         setAppIcon("/textures/exit01.png");
         setAudioSampleRate(8000);
+        setFrameRate(Settings.getFloat(Settings.FRAME_RATE, getFrameRate()));
         setAutoPixelScale(Settings.getBoolean(Settings.AUTO_PIXEL_SCALE, true));
         setAutoPixelScaleBaseSize(320, 240);
     }
@@ -18,24 +18,47 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 public class Map {
 
+    /**
+     * For empty-space skipping, the map is divided into blocks of BLOCK_SIZE x BLOCK_SIZE tiles.
+     * Each block counts its tiles that aren't TYPE_NOTHING, so a ray can cross a block with a
+     * count of zero without checking each tile.
+     */
+    public static final int BLOCK_SIZE_BITS = 2;
+    public static final int BLOCK_SIZE = 1 << BLOCK_SIZE_BITS;
+
     private int width;
     private int height;
+    private int blocksWide;
+    private int blocksHigh;
+    private int[] blockTileCounts;
 
     private final MessageQueue messageQueue;
+    private final Random random;
     private final Player player;
     private final List<Entity> entities = new ArrayList<>();
     private final List<Action> actions = new ArrayList<>();
     private final SoftTexture exitButtonOnTexture;
     private final SoftTexture generatorOnTexture;
     private SoftTexture defaultFloorTexture;
-    private Tile[][] tiles;
+    // Tile data, indexed by x + y * width. Each Tile is a view of its index in these arrays.
+    private Tile[] tiles;
+    private int[] tileTypes;
+    private int[] tileSubtypes;
+    private int[] tileStates;
+    private int[] tileRenderStates;
+    private int[] tileTextureIds;
+    private final List<SoftTexture> textures = new ArrayList<>();
+    // Incremented when a tile's type, subtype, render state, or texture changes
+    private int tileModCount;
     private boolean electricityOn = true;
     private boolean exitFound = false;
     private Tile lastCollidedWall;
@@ -44,7 +67,17 @@ public class Map {
     private int numEnemies = 0;
 
     public Map(HashMap<String, SoftTexture> textureCache, MessageQueue messageQueue, String mapName, Player oldPlayer, Stats stats) throws IOException {
+        this(textureCache, messageQueue, mapName, oldPlayer, stats, new Random());
+    }
+
+    /**
+     * Creates a map whose entities use the random source. With the same random source seed and
+     * the same input each tick, the map plays the same way each time.
+     */
+    public Map(HashMap<String, SoftTexture> textureCache, MessageQueue messageQueue, String mapName, Player oldPlayer, Stats stats,
+               Random random) throws IOException {
         this.messageQueue = messageQueue;
+        this.random = random;
 
         SoftTexture[] enemyTextures = new SoftTexture[Enemy.NUM_IMAGES];
         for (int i = 0; i < Enemy.NUM_IMAGES; i++) {
@@ -92,7 +125,14 @@ public class Map {
             }
             player.setDirection(Integer.parseInt(line.substring(4)));
 
-            tiles = new Tile[width][height];
+            int numTiles = width * height;
+            tiles = new Tile[numTiles];
+            tileTypes = new int[numTiles];
+            tileSubtypes = new int[numTiles];
+            tileStates = new int[numTiles];
+            tileRenderStates = new int[numTiles];
+            tileTextureIds = new int[numTiles];
+            Arrays.fill(tileTextureIds, -1);
 
             // Read tile types
             for (int y = 0; y < height; y++) {
@@ -101,90 +141,89 @@ public class Map {
                     throw new IOException("Wrong width: " + line);
                 }
                 for (int x = 0; x < width; x++) {
-                    Tile tile = new Tile();
-
-                    tiles[x][y] = tile;
+                    int index = x + y * width;
+                    tiles[index] = new Tile(this, x, y);
 
                     switch (line.charAt(x)) {
                         case ' ':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             break;
                         case '#':
-                            tile.type = Tile.TYPE_WALL;
+                            tileTypes[index] = Tile.TYPE_WALL;
                             break;
                         case 'A':
-                            tile.type = Tile.TYPE_DOOR;
+                            tileTypes[index] = Tile.TYPE_DOOR;
                             break;
                         case 'B':
-                            tile.type = Tile.TYPE_DOOR;
-                            tile.subtype = 1;
+                            tileTypes[index] = Tile.TYPE_DOOR;
+                            tileSubtypes[index] = 1;
                             break;
                         case 'C':
-                            tile.type = Tile.TYPE_DOOR;
-                            tile.subtype = 2;
+                            tileTypes[index] = Tile.TYPE_DOOR;
+                            tileSubtypes[index] = 2;
                             break;
                         case 'D':
-                            tile.type = Tile.TYPE_DOOR;
-                            tile.subtype = 3;
+                            tileTypes[index] = Tile.TYPE_DOOR;
+                            tileSubtypes[index] = 3;
                             break;
                         case '-':
-                            tile.type = Tile.TYPE_WINDOW;
-                            tile.subtype = 1;
+                            tileTypes[index] = Tile.TYPE_WINDOW;
+                            tileSubtypes[index] = 1;
                             break;
                         case '|':
-                            tile.type = Tile.TYPE_WINDOW;
-                            tile.subtype = 2;
+                            tileTypes[index] = Tile.TYPE_WINDOW;
+                            tileSubtypes[index] = 2;
                             break;
                         case '+':
-                            tile.type = Tile.TYPE_WINDOW;
-                            tile.subtype = 3;
+                            tileTypes[index] = Tile.TYPE_WINDOW;
+                            tileSubtypes[index] = 3;
                             break;
                         case '*':
-                            tile.type = Tile.TYPE_GENERATOR;
+                            tileTypes[index] = Tile.TYPE_GENERATOR;
                             setElectricityOn(false);
                             break;
                         case '@':
-                            tile.type = Tile.TYPE_MOVABLE_WALL;
+                            tileTypes[index] = Tile.TYPE_MOVABLE_WALL;
                             numSecrets++;
                             break;
                         case 'X':
-                            tile.type = Tile.TYPE_EXIT;
+                            tileTypes[index] = Tile.TYPE_EXIT;
                             break;
                         case 'S':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             player.setLocation(x + 0.5f, y + 0.5f);
                             break;
                         case '^':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             addEntity(new Enemy(this, stats, enemyTextures, x + 0.5f, y + 0.5f, 1));
                             numEnemies++;
                             break;
                         case 'b':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             addEntity(new Key(this, textureCache.get("/sprites/key01.png"), x + 0.5f, y + 0.5f, 1));
                             break;
                         case 'c':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             addEntity(new Key(this, textureCache.get("/sprites/key02.png"), x + 0.5f, y + 0.5f, 2));
                             break;
                         case 'd':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             addEntity(new Key(this, textureCache.get("/sprites/key03.png"), x + 0.5f, y + 0.5f, 3));
                             break;
                         case 'h':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             addEntity(new MedKit(this, textureCache.get("/sprites/medkit.png"), x + 0.5f, y + 0.5f, false));
                             break;
                         case 'H':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             addEntity(new MedKit(this, textureCache.get("/sprites/nuclear.png"), x + 0.5f, y + 0.5f, true));
                             break;
                         case 'm':
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             addEntity(new Ammo(this, textureCache.get("/sprites/ammo.png"), x + 0.5f, y + 0.5f));
                             break;
                         default:
-                            tile.type = Tile.TYPE_NOTHING;
+                            tileTypes[index] = Tile.TYPE_NOTHING;
                             App.logError("Map " + mapName + " contains invalid char: " + line.charAt(x));
                             break;
                     }
@@ -200,11 +239,11 @@ public class Map {
                     throw new IOException("Wrong width: " + line);
                 }
                 for (int x = 0; x < width; x++) {
-                    Tile tile = tiles[x][y];
+                    Tile tile = tiles[x + y * width];
 
-                    if (tile.type == Tile.TYPE_GENERATOR) {
+                    if (tile.getType() == Tile.TYPE_GENERATOR) {
                         tile.setTexture(textureCache.get("generator00.png"));
-                    } else if (tile.type == Tile.TYPE_EXIT) {
+                    } else if (tile.getType() == Tile.TYPE_EXIT) {
                         tile.setTexture(textureCache.get("exit00.png"));
                     } else {
                         int textureIndex = Integer.parseInt(line.substring(x, x + 1), 16);
@@ -219,6 +258,9 @@ public class Map {
         } catch (NumberFormatException ex) {
             throw new IOException(ex);
         }
+
+        createBlocks();
+        storePreviousEntityStates();
     }
 
     public void setMessage(String message) {
@@ -237,7 +279,19 @@ public class Map {
         return exitFound;
     }
 
+    /**
+     * Stores the state of every entity as its previous state. Called at the start of each tick,
+     * and on ticks where the map isn't ticked, so that nothing is drawn between stale states.
+     */
+    public void storePreviousEntityStates() {
+        for (Entity entity : entities) {
+            entity.storePreviousState();
+        }
+    }
+
     public void tick() {
+        storePreviousEntityStates();
+
         // Handle regular actions
         Iterator<Action> i = actions.iterator();
         while (i.hasNext()) {
@@ -297,6 +351,7 @@ public class Map {
     }
 
     public void addEntity(Entity entity) {
+        entity.storePreviousState();
         entities.add(entity);
 
         Tile tile = getTileAt(entity);
@@ -310,6 +365,18 @@ public class Map {
         return player;
     }
 
+    public List<Entity> getEntities() {
+        return entities;
+    }
+
+    /**
+     * Gets the random source for the game's simulation. Use it instead of Math.random() for
+     * anything that affects gameplay, so that recorded input replays exactly.
+     */
+    public Random getRandom() {
+        return random;
+    }
+
     public boolean isElectricityOn() {
         return electricityOn;
     }
@@ -343,12 +410,138 @@ public class Map {
             return null;
         }
 
-        return tiles[x][y];
+        return tiles[x + y * width];
+    }
+
+    /**
+     * Gets the index of the tile at the specified location, or -1 if the location is outside
+     * the map.
+     */
+    public int getTileIndex(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return -1;
+        }
+        return x + y * width;
+    }
+
+    /**
+     * Gets the tiles, indexed by x + y * width.
+     */
+    public Tile[] getTiles() {
+        return tiles;
+    }
+
+    public int[] getTileTypes() {
+        return tileTypes;
+    }
+
+    public int[] getTileSubtypes() {
+        return tileSubtypes;
+    }
+
+    public int[] getTileStates() {
+        return tileStates;
+    }
+
+    public int[] getTileRenderStates() {
+        return tileRenderStates;
+    }
+
+    /**
+     * Gets the texture ids of the tiles, or -1 for tiles without a texture. See getTexture().
+     */
+    public int[] getTileTextureIds() {
+        return tileTextureIds;
+    }
+
+    /**
+     * Gets the texture with the specified id, or null if the id is -1.
+     */
+    public SoftTexture getTexture(int id) {
+        return id < 0 ? null : textures.get(id);
+    }
+
+    /**
+     * Gets the id of a tile texture, adding it to the map's textures if needed.
+     */
+    public int getTextureId(SoftTexture texture) {
+        int id = textures.indexOf(texture);
+        if (id < 0) {
+            id = textures.size();
+            textures.add(texture);
+        }
+        return id;
+    }
+
+    public int getNumTextures() {
+        return textures.size();
+    }
+
+    /**
+     * Sets the type of a tile, keeping the block tile counts up to date. Tile types should only be
+     * changed with this method once the map is loaded.
+     */
+    public void setTileType(int tileX, int tileY, int type) {
+        int index = tileX + tileY * width;
+        boolean wasEmpty = tileTypes[index] == Tile.TYPE_NOTHING;
+        boolean isEmpty = type == Tile.TYPE_NOTHING;
+        if (wasEmpty != isEmpty) {
+            int blockIndex = (tileX >> BLOCK_SIZE_BITS) + (tileY >> BLOCK_SIZE_BITS) * blocksWide;
+            blockTileCounts[blockIndex] += isEmpty ? -1 : 1;
+        }
+        tileTypes[index] = type;
+        tileModCount++;
+    }
+
+    /**
+     * Gets a count that changes whenever a tile's type, subtype, render state, or texture
+     * changes, so the renderer can tell when its copy of the tiles is out of date.
+     */
+    public int getTileModCount() {
+        return tileModCount;
+    }
+
+    /**
+     * Called by Tile when a tile's subtype, render state, or texture changes.
+     */
+    void notifyTileChanged() {
+        tileModCount++;
+    }
+
+    private void createBlocks() {
+        blocksWide = (width + BLOCK_SIZE - 1) >> BLOCK_SIZE_BITS;
+        blocksHigh = (height + BLOCK_SIZE - 1) >> BLOCK_SIZE_BITS;
+        blockTileCounts = new int[blocksWide * blocksHigh];
+        // Blocks on the right and bottom edges may extend past the map. Those tiles are counted,
+        // so a ray never skips past the edge of the map.
+        for (int x = 0; x < (blocksWide << BLOCK_SIZE_BITS); x++) {
+            for (int y = 0; y < (blocksHigh << BLOCK_SIZE_BITS); y++) {
+                if (x >= width || y >= height || tileTypes[x + y * width] != Tile.TYPE_NOTHING) {
+                    blockTileCounts[(x >> BLOCK_SIZE_BITS) + (y >> BLOCK_SIZE_BITS) * blocksWide]++;
+                }
+            }
+        }
+    }
+
+    public int getBlocksWide() {
+        return blocksWide;
+    }
+
+    public int getBlocksHigh() {
+        return blocksHigh;
+    }
+
+    /**
+     * Gets the number of tiles in each block that aren't TYPE_NOTHING, indexed by
+     * blockX + blockY * blocksWide. Doors are counted whether they are open or not.
+     */
+    public int[] getBlockTileCounts() {
+        return blockTileCounts;
     }
 
     public boolean isSolidAt(int tileX, int tileY) {
-        Tile tile = getTileAt(tileX, tileY);
-        return (tile == null || tile.isSolid());
+        int index = getTileIndex(tileX, tileY);
+        return (index < 0 || Tile.isSolid(tileTypes[index], tileRenderStates[index]));
     }
 
     public void notifyPlayerEnteredTile(int tileX, int tileY) {
@@ -373,7 +566,7 @@ public class Map {
     private boolean isUnlockedDoor(int tileX, int tileY) {
         Tile tile = getTileAt(tileX, tileY);
         if (tile != null) {
-            if (tile.type == Tile.TYPE_DOOR && player.hasKey(tile.getDoorType())) {
+            if (tile.getType() == Tile.TYPE_DOOR && player.hasKey(tile.getDoorType())) {
                 return true;
             }
         }
@@ -400,8 +593,8 @@ public class Map {
     }
 
     public void notifyPlayerTouchedWall(Tile tile, int tileX, int tileY) {
-        if (tile.type == Tile.TYPE_MOVABLE_WALL) {
-            if (tile.state == MovableWallAction.STATE_DONE) {
+        if (tile.getType() == Tile.TYPE_MOVABLE_WALL) {
+            if (tile.getState() == MovableWallAction.STATE_DONE) {
                 int dx = tileX - (int) player.getX();
                 int dy = tileY - (int) player.getY();
 
@@ -410,30 +603,30 @@ public class Map {
                     player.setSecrets(player.getSecrets() + 1);
                 }
             }
-        } else if (tile.type == Tile.TYPE_EXIT) {
-            if (tile.state == 0) {
-                tile.state = 1;
+        } else if (tile.getType() == Tile.TYPE_EXIT) {
+            if (tile.getState() == 0) {
+                tile.setState(1);
                 tile.setTexture(exitButtonOnTexture);
-                App.getApp().getAudio("/sound/endlevel.wav").play();
+                App.getAppAudio("/sound/endlevel.wav").play();
                 exitFound = true;
             }
-        } else if (tile.type == Tile.TYPE_GENERATOR) {
-            if (tile.state == 0) {
-                tile.state = 1;
+        } else if (tile.getType() == Tile.TYPE_GENERATOR) {
+            if (tile.getState() == 0) {
+                tile.setState(1);
                 tile.setTexture(generatorOnTexture);
                 actions.add(new GeneratorAction(this, tileX, tileY));
                 setElectricityOn(true);
                 setMessage("The power is now on");
             }
-        } else if (tile.type == Tile.TYPE_DOOR) {
+        } else if (tile.getType() == Tile.TYPE_DOOR) {
             if (tile != lastCollidedWall) {
                 lastCollidedWall = tile;
                 if (!electricityOn) {
                     setMessage("The power is off");
-                    App.getApp().getAudio("/sound/no_ammo.wav").play();
+                    App.getAppAudio("/sound/no_ammo.wav").play();
                 } else if (!player.hasKey(tile.getDoorType())) {
                     setMessage("The door is locked");
-                    App.getApp().getAudio("/sound/no_ammo.wav").play();
+                    App.getAppAudio("/sound/no_ammo.wav").play();
                 }
             }
         }
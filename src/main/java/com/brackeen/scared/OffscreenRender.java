@@ -0,0 +1,261 @@
+package com.brackeen.scared;
+
+import com.brackeen.app.App;
+import com.brackeen.app.Profiler;
+import com.brackeen.scared.entity.Ammo;
+import com.brackeen.scared.entity.Player;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders frames of a level without a window, for benchmarking and regression-testing the
+ * renderer on machines without a display. The camera turns a full circle at the player's start
+ * location.
+ *
+ * Usage:
+ *     java -Djava.awt.headless=true -cp scared.jar com.brackeen.scared.OffscreenRender [options]
+ *
+ * The Vector API span kernels (see SpanKernels) are used on Java 16 or newer when the jar was
+ * built with them and the module is added:
+ *     --add-modules jdk.incubator.vector
+ *
+ * Options:
+ *     -level N            Level to load (default 0)
+ *     -size WxH           Frame size (default 640x480)
+ *     -frames N           Number of frames to render (default 360)
+ *     -warmup N           Number of frames to render before timing (default 60)
+ *     -threads N          Number of render threads (default: number of processors)
+ *     -scale S            Render scale, from 1/16 to 1 (default 1)
+ *     -noshading          Disable depth shading
+ *     -tiled              Enable tiled rendering
+ *     -transposed         Enable transposed rendering
+ *     -overdraw           Count pixels drawn, and print the average overdraw
+ *     -profile            Print the time of each render stage
+ *     -dump DIR           Write frames as PNG files to DIR
+ *     -dumpevery N        With -dump, write every Nth frame (default 1)
+ *     -checkdirty         Instead of timing, check that dirty-frame tracking renders the same
+ *                         frames as full rendering. The level's walls are cleared and, with
+ *                         the camera still, a sprite moves away from the camera and back.
+ *                         Exits with status 1 if any frame differs.
+ */
+public class OffscreenRender {
+
+    public static void main(String[] args) throws IOException {
+        int level = 0;
+        int width = 640;
+        int height = 480;
+        int numFrames = 360;
+        int numWarmupFrames = 60;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        float renderScale = 1;
+        boolean depthShading = true;
+        boolean tiled = false;
+        boolean transposed = false;
+        boolean countOverdraw = false;
+        boolean profile = false;
+        boolean checkDirty = false;
+        File dumpDir = null;
+        int dumpEvery = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-noshading".equals(arg)) {
+                depthShading = false;
+            } else if ("-tiled".equals(arg)) {
+                tiled = true;
+            } else if ("-transposed".equals(arg)) {
+                transposed = true;
+            } else if ("-overdraw".equals(arg)) {
+                countOverdraw = true;
+            } else if ("-profile".equals(arg)) {
+                profile = true;
+            } else if ("-checkdirty".equals(arg)) {
+                checkDirty = true;
+            } else if (i + 1 < args.length) {
+                String value = args[++i];
+                if ("-level".equals(arg)) {
+                    level = Integer.parseInt(value);
+                } else if ("-size".equals(arg)) {
+                    int x = value.indexOf('x');
+                    width = Integer.parseInt(value.substring(0, x));
+                    height = Integer.parseInt(value.substring(x + 1));
+                } else if ("-frames".equals(arg)) {
+                    numFrames = Integer.parseInt(value);
+                } else if ("-warmup".equals(arg)) {
+                    numWarmupFrames = Integer.parseInt(value);
+                } else if ("-threads".equals(arg)) {
+                    numThreads = Integer.parseInt(value);
+                } else if ("-scale".equals(arg)) {
+                    renderScale = Float.parseFloat(value);
+                } else if ("-dump".equals(arg)) {
+                    dumpDir = new File(value);
+                } else if ("-dumpevery".equals(arg)) {
+                    dumpEvery = Math.max(1, Integer.parseInt(value));
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } else {
+                throw new IllegalArgumentException("Missing value for option: " + arg);
+            }
+        }
+
+        HashMap<String, SoftTexture> textureCache = loadTextures();
+        Map map = new Map(textureCache, new MessageQueue(4), "/maps/level" + level + ".txt", null, new Stats());
+
+        BufferedImage background = loadImage("/background/background.png");
+        SoftRender3D renderer = new SoftRender3D(textureCache, background);
+        renderer.setNumRenderThreads(numThreads);
+        renderer.setDepthShadingEnabled(depthShading);
+        renderer.setTiledRenderingEnabled(tiled);
+        renderer.setTransposedRenderingEnabled(transposed);
+        renderer.setSize(width, height);
+        renderer.load();
+        renderer.setRenderScale(renderScale);
+        renderer.setOverdrawCountingEnabled(countOverdraw);
+        Profiler profiler = new Profiler();
+        renderer.setProfiler(profiler);
+
+        if (checkDirty) {
+            SoftRender3D dirtyRenderer = new SoftRender3D(textureCache, background);
+            dirtyRenderer.setNumRenderThreads(numThreads);
+            dirtyRenderer.setDepthShadingEnabled(depthShading);
+            dirtyRenderer.setTiledRenderingEnabled(tiled);
+            dirtyRenderer.setTransposedRenderingEnabled(transposed);
+            dirtyRenderer.setSize(width, height);
+            dirtyRenderer.load();
+            dirtyRenderer.setRenderScale(renderScale);
+            dirtyRenderer.setDirtyFrameTrackingEnabled(true);
+            int numMismatches = checkDirtyFrames(map, textureCache, renderer, dirtyRenderer, numFrames);
+            renderer.unload();
+            dirtyRenderer.unload();
+            System.out.println(String.format(Locale.US, "level%d %dx%d: %d frames, %d differ with dirty-frame tracking",
+                    level, width, height, numFrames, numMismatches));
+            if (numMismatches > 0) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        renderer.setMap(map);
+
+        if (dumpDir != null && !dumpDir.isDirectory() && !dumpDir.mkdirs()) {
+            throw new IOException("Couldn't create directory: " + dumpDir);
+        }
+
+        Player player = map.getPlayer();
+        for (int i = 0; i < numWarmupFrames; i++) {
+            renderer.setCamera(player.getX(), player.getY(), player.getZ(), 360f * i / numWarmupFrames);
+            renderer.render();
+        }
+
+        long totalTime = 0;
+        double totalOverdraw = 0;
+        profiler.setEnabled(profile);
+        for (int i = 0; i < numFrames; i++) {
+            renderer.setCamera(player.getX(), player.getY(), player.getZ(), 360f * i / numFrames);
+            long startTime = System.nanoTime();
+            renderer.render();
+            totalTime += System.nanoTime() - startTime;
+            totalOverdraw += renderer.getOverdraw();
+            profiler.endFrame();
+
+            if (dumpDir != null && (i % dumpEvery) == 0) {
+                File file = new File(dumpDir, String.format(Locale.US, "frame%05d.png", i));
+                ImageIO.write(renderer.getFrameBuffer().getBufferedImageView(), "png", file);
+            }
+        }
+        renderer.unload();
+
+        double totalMillis = totalTime / 1000000.0;
+        System.out.println(String.format(Locale.US,
+                "level%d %dx%d scale=%.3f threads=%d shading=%s tiled=%s transposed=%s vector=%s: %d frames, %.3f ms/frame, %.1f fps",
+                level, width, height, renderer.getRenderScale(), numThreads, depthShading, tiled, transposed,
+                SpanKernels.isVectorized(), numFrames,
+                totalMillis / numFrames, numFrames * 1000 / totalMillis));
+        if (profile) {
+            System.out.println(profiler.getReport());
+        }
+        if (countOverdraw) {
+            System.out.println(String.format(Locale.US, "overdraw: %.3f", totalOverdraw / numFrames));
+        }
+    }
+
+    /**
+     * Clears the walls inside the map's border, then, with the camera still, moves a sprite away
+     * from the camera and back while rendering each frame with both renderers. Crossing the open
+     * area, the sprite enters blocks that the raycaster skipped in the previous frame. Returns
+     * the number of frames that differ.
+     */
+    private static int checkDirtyFrames(Map map, HashMap<String, SoftTexture> textureCache,
+                                        SoftRender3D renderer, SoftRender3D dirtyRenderer, int numFrames) {
+        for (int y = 1; y < map.getHeight() - 1; y++) {
+            for (int x = 1; x < map.getWidth() - 1; x++) {
+                map.setTileType(x, y, Tile.TYPE_NOTHING);
+            }
+        }
+        Player player = map.getPlayer();
+        float cosDir = (float) Math.cos(Math.toRadians(player.getDirection()));
+        float sinDir = (float) -Math.sin(Math.toRadians(player.getDirection()));
+        float maxDistance = 1;
+        while (isInterior(map, player.getX() + cosDir * (maxDistance + 0.5f),
+                player.getY() + sinDir * (maxDistance + 0.5f))) {
+            maxDistance += 0.25f;
+        }
+        Ammo sprite = new Ammo(map, textureCache.get("/sprites/ammo.png"), player.getX() + cosDir, player.getY() + sinDir);
+        map.addEntity(sprite);
+        CollisionDetection collisionDetection = new CollisionDetection(map);
+
+        renderer.setMap(map);
+        dirtyRenderer.setMap(map);
+        int numMismatches = 0;
+        for (int i = 0; i < numFrames; i++) {
+            // Out and back, from 1 tile to maxDistance tiles away
+            float t = 2f * i / numFrames;
+            float distance = 1 + (maxDistance - 1) * (t <= 1 ? t : 2 - t);
+            collisionDetection.move(sprite, player.getX() + cosDir * distance, player.getY() + sinDir * distance,
+                    false, false);
+            renderer.setCamera(player.getX(), player.getY(), player.getZ(), player.getDirection());
+            dirtyRenderer.setCamera(player.getX(), player.getY(), player.getZ(), player.getDirection());
+            renderer.render();
+            dirtyRenderer.render();
+            if (!Arrays.equals(renderer.getFrameBuffer().getData(), dirtyRenderer.getFrameBuffer().getData())) {
+                numMismatches++;
+            }
+        }
+        return numMismatches;
+    }
+
+    private static boolean isInterior(Map map, float x, float y) {
+        return x >= 1 && y >= 1 && x < map.getWidth() - 1 && y < map.getHeight() - 1;
+    }
+
+    static HashMap<String, SoftTexture> loadTextures() throws IOException {
+        HashMap<String, SoftTexture> textureCache = new HashMap<>();
+        for (String textureName : LoadingScene.getSpriteTextureNames()) {
+            textureCache.put(textureName, new SoftTexture(loadImage(textureName)));
+        }
+        for (String textureName : LoadingScene.WALL_TEXTURES) {
+            SoftTexture texture = new SoftTexture(loadImage("/textures/" + textureName));
+            LoadingScene.createMipMaps(texture, textureName);
+            textureCache.put(textureName, texture);
+        }
+        return textureCache;
+    }
+
+    static BufferedImage loadImage(String imageName) throws IOException {
+        URL url = App.getResource(imageName);
+        BufferedImage image = url == null ? null : ImageIO.read(url);
+        if (image == null) {
+            throw new IOException("Could not load image: " + imageName);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,63 @@
+package com.brackeen.scared;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork/join pool for splitting render work into independent jobs (usually screen strips).
+ * With one thread, jobs run in order on the calling thread and no pool is created.
+ */
+public class RenderWorkers {
+
+    private final int numThreads;
+    private ForkJoinPool pool;
+
+    public RenderWorkers(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Gets the number of jobs to split a range of the specified size into, so that each job
+     * covers at least minJobSize elements.
+     */
+    public int getNumJobs(int size, int minJobSize) {
+        return Math.max(1, Math.min(numThreads, size / Math.max(1, minJobSize)));
+    }
+
+    /**
+     * Runs all jobs and waits for them to finish.
+     */
+    public void invokeAll(final Runnable[] jobs, final int numJobs) {
+        if (numThreads == 1 || numJobs <= 1) {
+            for (int i = 0; i < numJobs; i++) {
+                jobs[i].run();
+            }
+            return;
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(numThreads);
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[numJobs];
+                for (int i = 0; i < numJobs; i++) {
+                    tasks[i] = ForkJoinTask.adapt(jobs[i]);
+                }
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.brackeen.scared;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Replays an InputRecording without a window or rendering, as fast as possible, for
+ * benchmarking the simulation and checking that changes keep gameplay bit-exact. Each run
+ * prints the time taken and a hash of the final state. The game's "record stop" command prints
+ * the hash of the state when recording stopped, which every replay must match.
+ *
+ * Usage:
+ *     java -Djava.awt.headless=true -cp scared.jar com.brackeen.scared.Replay [options] FILE
+ *
+ * Options:
+ *     -runs N             Number of timed runs (default 10)
+ *     -warmup N           Number of runs before timing (default 3)
+ */
+public class Replay {
+
+    public static void main(String[] args) throws IOException {
+        int numRuns = 10;
+        int numWarmupRuns = 3;
+        File file = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                file = new File(arg);
+            } else if (i + 1 < args.length) {
+                String value = args[++i];
+                if ("-runs".equals(arg)) {
+                    numRuns = Integer.parseInt(value);
+                } else if ("-warmup".equals(arg)) {
+                    numWarmupRuns = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } else {
+                throw new IllegalArgumentException("Missing value for option: " + arg);
+            }
+        }
+        if (file == null) {
+            throw new IllegalArgumentException("No recording file");
+        }
+
+        InputRecording recording = InputRecording.read(file);
+        HashMap<String, SoftTexture> textureCache = OffscreenRender.loadTextures();
+        SoftTexture[] blastTextures = {
+                textureCache.get("/sprites/blast1.png"),
+                textureCache.get("/sprites/blast2.png"),
+                textureCache.get("/sprites/blast3.png"),
+        };
+
+        for (int i = 0; i < numWarmupRuns; i++) {
+            tick(createSimulation(recording, textureCache, blastTextures), recording);
+        }
+
+        long stateHash = 0;
+        long totalTime = 0;
+        for (int i = 0; i < numRuns; i++) {
+            Simulation simulation = createSimulation(recording, textureCache, blastTextures);
+            long startTime = System.nanoTime();
+            tick(simulation, recording);
+            totalTime += System.nanoTime() - startTime;
+            if (i > 0 && simulation.getStateHash() != stateHash) {
+                throw new IllegalStateException("Replay is not deterministic");
+            }
+            stateHash = simulation.getStateHash();
+        }
+
+        int numTicks = recording.getNumTicks();
+        double totalMillis = totalTime / 1000000.0;
+        System.out.println(String.format(Locale.US,
+                "level%d %d ticks, %d runs: %.3f ms/run, %.0f ticks/s, state %016x",
+                recording.getLevel(), numTicks, numRuns, totalMillis / numRuns,
+                (double) numTicks * numRuns * 1000 / totalMillis, stateHash));
+    }
+
+    private static Simulation createSimulation(InputRecording recording, HashMap<String, SoftTexture> textureCache,
+                                               SoftTexture[] blastTextures) throws IOException {
+        Stats stats = new Stats();
+        Map map = recording.createMap(textureCache, new MessageQueue(4), stats);
+        return new Simulation(map, stats, blastTextures);
+    }
+
+    private static void tick(Simulation simulation, InputRecording recording) {
+        int numTicks = recording.getNumTicks();
+        for (int i = 0; i < numTicks; i++) {
+            simulation.tick(recording.getInput(i), recording.getAimAngle(i));
+        }
+    }
+}
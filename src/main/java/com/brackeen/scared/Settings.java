@@ -6,6 +6,10 @@ public class Settings {
 
     public static final String AUTO_PIXEL_SCALE = "autoPixelScale";
     public static final String DEPTH_SHADING = "depthShading";
+    public static final String DYNAMIC_RESOLUTION = "dynamicResolution";
+    public static final String FRAME_RATE = "frameRate";
+    public static final String PIPELINED_RENDERING = "pipelinedRendering";
+    public static final String TARGET_FRAME_RATE = "targetFrameRate";
     public static final String VOLUME = "volume";
 
     public static Preferences getPrefs() {
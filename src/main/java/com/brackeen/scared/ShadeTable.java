@@ -0,0 +1,61 @@
+package com.brackeen.scared;
+
+/**
+ * Precomputed depth shading, like the colormaps of classic software renderers. For each depth,
+ * a row of 256 entries maps a color channel to its shaded value, so shading a pixel is a table
+ * lookup instead of a division per channel.
+ *
+ * Depths at or below MIN_DEPTH aren't shaded. A channel c at depth d is shaded to
+ * (c << 8) / d.
+ */
+public class ShadeTable {
+
+    public static final int MIN_DEPTH = 256;
+
+    private final int maxDepth;
+    private final byte[] shades;
+    private final byte[] opaqueShades;
+
+    public ShadeTable(int maxDepth) {
+        this.maxDepth = maxDepth;
+        int numDepths = Math.max(0, maxDepth - MIN_DEPTH);
+        shades = new byte[numDepths << 8];
+        opaqueShades = new byte[numDepths << 8];
+        for (int depth = MIN_DEPTH + 1; depth <= maxDepth; depth++) {
+            int offset = getOffset(depth);
+            for (int c = 0; c < 256; c++) {
+                int shade = (c << 8) / depth;
+                shades[offset + c] = (byte) shade;
+                // Same as blending the shaded channel at full alpha
+                opaqueShades[offset + c] = (byte) ((0xff * shade) >> 8);
+            }
+        }
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the offset of the row for a depth, which must be greater than MIN_DEPTH and no greater
+     * than the max depth.
+     */
+    public int getOffset(int depth) {
+        return (depth - MIN_DEPTH - 1) << 8;
+    }
+
+    /**
+     * Gets the shaded channels, indexed by getOffset(depth) + channel. Mask entries with 0xff.
+     */
+    public byte[] getShades() {
+        return shades;
+    }
+
+    /**
+     * Gets the shaded channels of opaque pixels, indexed like getShades(). These are the shaded
+     * channels blended at full alpha.
+     */
+    public byte[] getOpaqueShades() {
+        return opaqueShades;
+    }
+}
@@ -0,0 +1,311 @@
+package com.brackeen.scared;
+
+import com.brackeen.app.App;
+import com.brackeen.scared.entity.BlastMark;
+import com.brackeen.scared.entity.Enemy;
+import com.brackeen.scared.entity.Entity;
+import com.brackeen.scared.entity.Player;
+
+import java.awt.geom.Point2D;
+import java.util.List;
+
+/**
+ * The simulation of one level: the map, and the player moved by one tick of input at a time.
+ * The input of a tick is a set of INPUT flags and the angle the gun is aimed at, so the same
+ * ticks can be run from the keyboard and mouse (GameScene) or from an InputRecording (Replay).
+ *
+ * Gameplay randomness comes from the map's random source, so with the same seed and the same
+ * input, a level plays the same way each time.
+ */
+public class Simulation {
+
+    public static final int INPUT_LEFT = 1;
+    public static final int INPUT_RIGHT = 1 << 1;
+    public static final int INPUT_UP = 1 << 2;
+    public static final int INPUT_DOWN = 1 << 3;
+    public static final int INPUT_STRAFE_LEFT = 1 << 4;
+    public static final int INPUT_STRAFE_RIGHT = 1 << 5;
+    public static final int INPUT_STRAFE_MODIFIER = 1 << 6;
+    public static final int INPUT_FIRE = 1 << 7;
+
+    public static final float MIN_RUN_VELOCITY = -0.055f;
+    public static final float MAX_RUN_VELOCITY = 0.078f;
+    private static final float MIN_STRAFE_VELOCITY = -0.055f;
+    private static final float MAX_STRAFE_VELOCITY = 0.055f;
+    private static final float MAX_TURN_VELOCITY = 360 / 128f;
+    private static final float MIN_TURN_VELOCITY = -MAX_TURN_VELOCITY;
+
+    private static final float RUN_ACCEL = 0.0047f;
+    private static final float RUN_DECEL = 0.0047f;
+    private static final float STRAFE_ACCEL = 0.0039f;
+    private static final float STRAFE_DECEL = 0.0039f;
+    private static final float TURN_ACCEL = 360 / 680f;
+    private static final float TURN_DECEL = 360 / 512f;
+
+    public static final int GUN_BLAST_COUNTDOWN = 6;
+    private static final int FIRE_COUNTDOWN = 15;
+
+    private final Map map;
+    private final CollisionDetection collisionDetection;
+    private final Stats stats;
+    private final SoftTexture[] blastTextures;
+
+    private float runVelocity = 0;
+    private float strafeVelocity = 0;
+    private float turnVelocity = 0;
+    private int ticksUntilRefire;
+
+    public Simulation(Map map, Stats stats, SoftTexture[] blastTextures) {
+        this.map = map;
+        this.collisionDetection = new CollisionDetection(map);
+        this.stats = stats;
+        this.blastTextures = blastTextures;
+    }
+
+    public Map getMap() {
+        return map;
+    }
+
+    public float getRunVelocity() {
+        return runVelocity;
+    }
+
+    public float getStrafeVelocity() {
+        return strafeVelocity;
+    }
+
+    /**
+     * Runs one tick: the map, then the player.
+     */
+    public void tick(int input, float aimAngle) {
+        tickMap();
+        if (map.getPlayer().isAlive()) {
+            tickPlayer(input, aimAngle);
+        } else {
+            tickDeadPlayer();
+        }
+    }
+
+    /**
+     * Moves entities and handles actions.
+     */
+    public void tickMap() {
+        map.tick();
+    }
+
+    /**
+     * Lowers the camera of a dead player to the floor.
+     */
+    public void tickDeadPlayer() {
+        Player player = map.getPlayer();
+        player.setZ(Math.max(player.getZ() - 0.008f, player.getRadius()));
+    }
+
+    /**
+     * Fires the gun and moves the player. Returns true if the gun fired.
+     */
+    public boolean tickPlayer(int input, float aimAngle) {
+        Player player = map.getPlayer();
+        boolean fired = false;
+
+        // Handle firing
+        if ((input & INPUT_FIRE) != 0) {
+            if (ticksUntilRefire <= 0) {
+                fired = fire(aimAngle);
+                ticksUntilRefire = FIRE_COUNTDOWN;
+            }
+        }
+        if (ticksUntilRefire > 0) {
+            ticksUntilRefire--;
+        }
+
+        // Move player
+        boolean keyLeft = (input & INPUT_LEFT) != 0;
+        boolean keyRight = (input & INPUT_RIGHT) != 0;
+        boolean keyStrafeModifier = (input & INPUT_STRAFE_MODIFIER) != 0;
+        boolean keyRun = false;
+        boolean keyStrafe = false;
+        boolean keyTurn = false;
+        if ((input & INPUT_UP) != 0) {
+            keyRun = true;
+            runVelocity += RUN_ACCEL;
+
+            if (runVelocity > MAX_RUN_VELOCITY) {
+                runVelocity = MAX_RUN_VELOCITY;
+            }
+        }
+
+        if ((input & INPUT_DOWN) != 0) {
+            keyRun = true;
+            runVelocity -= RUN_ACCEL;
+
+            if (runVelocity < MIN_RUN_VELOCITY) {
+                runVelocity = MIN_RUN_VELOCITY;
+            }
+        }
+
+        if ((input & INPUT_STRAFE_LEFT) != 0 || (keyStrafeModifier && keyLeft)) {
+            keyStrafe = true;
+            strafeVelocity += STRAFE_ACCEL;
+
+            if (strafeVelocity > MAX_STRAFE_VELOCITY) {
+                strafeVelocity = MAX_STRAFE_VELOCITY;
+            }
+        }
+
+        if (keyLeft && !keyStrafeModifier) {
+            keyTurn = true;
+            turnVelocity += TURN_ACCEL;
+
+            if (turnVelocity > MAX_TURN_VELOCITY) {
+                turnVelocity = MAX_TURN_VELOCITY;
+            }
+        }
+
+        if ((input & INPUT_STRAFE_RIGHT) != 0 || (keyStrafeModifier && keyRight)) {
+            keyStrafe = true;
+            strafeVelocity -= STRAFE_ACCEL;
+
+            if (strafeVelocity < MIN_STRAFE_VELOCITY) {
+                strafeVelocity = MIN_STRAFE_VELOCITY;
+            }
+        }
+
+        if (keyRight && !keyStrafeModifier) {
+            keyTurn = true;
+            turnVelocity -= TURN_ACCEL;
+
+            if (turnVelocity < MIN_TURN_VELOCITY) {
+                turnVelocity = MIN_TURN_VELOCITY;
+            }
+        }
+
+        if (!keyRun && runVelocity != 0) {
+            if (Math.abs(runVelocity) <= RUN_DECEL) {
+                runVelocity = 0;
+            } else if (runVelocity < 0) {
+                runVelocity += RUN_DECEL;
+            } else {
+                runVelocity -= RUN_DECEL;
+            }
+        }
+
+        if (!keyStrafe && strafeVelocity != 0) {
+            if (Math.abs(strafeVelocity) <= STRAFE_DECEL) {
+                strafeVelocity = 0;
+            } else if (strafeVelocity < 0) {
+                strafeVelocity += STRAFE_DECEL;
+            } else {
+                strafeVelocity -= STRAFE_DECEL;
+            }
+        }
+
+        if (!keyTurn && turnVelocity != 0) {
+            if (Math.abs(turnVelocity) <= TURN_DECEL) {
+                turnVelocity = 0;
+            } else if (turnVelocity < 0) {
+                turnVelocity += TURN_DECEL;
+            } else {
+                turnVelocity -= TURN_DECEL;
+            }
+        }
+
+        if (turnVelocity != 0) {
+            player.setDirection((player.getDirection() + turnVelocity) % 360);
+        }
+
+        float strafeDir = player.getDirection() + 90;
+        float cosPlayerDir = (float) Math.cos(Math.toRadians(player.getDirection()));
+        float sinPlayerDir = (float) Math.sin(Math.toRadians(player.getDirection()));
+        float cosPlayerStrafeDir = (float) Math.cos(Math.toRadians(strafeDir));
+        float sinPlayerStrafeDir = (float) Math.sin(Math.toRadians(strafeDir));
+
+        float dx = cosPlayerDir * runVelocity;
+        float dy = -sinPlayerDir * runVelocity;
+        dx += cosPlayerStrafeDir * strafeVelocity;
+        dy += -sinPlayerStrafeDir * strafeVelocity;
+
+        if (dx != 0 || dy != 0) {
+            collisionDetection.move(player, player.getX() + dx, player.getY() + dy, true, true);
+        }
+        return fired;
+    }
+
+    private boolean fire(float aimAngle) {
+        Player player = map.getPlayer();
+        if (player.getAmmo() <= 0) {
+            App.getAppAudio("/sound/no_ammo.wav").play();
+            return false;
+        }
+
+        stats.numShotsFired++;
+        App.getAppAudio("/sound/laser1.wav").play();
+
+        if (!player.isGodMode()) {
+            player.setAmmo(player.getAmmo() - 1);
+        }
+
+        aimAngle += map.getRandom().nextDouble() * 4 - 2; // +/- 2 degrees
+
+        Point2D.Float p = map.getWallCollision(player.getX(), player.getY(), aimAngle);
+        if (p == null) {
+            return true;
+        }
+
+        boolean hitSomething = false;
+        List<Entity> hitEnemies = map.getCollisions(Enemy.class, player.getX(), player.getY(), p.x, p.y);
+        if (hitEnemies.size() > 0) {
+            for (Entity entity : hitEnemies) {
+                if (entity instanceof Enemy) {
+                    hitSomething |= ((Enemy) entity).hurt(6 + (int) (map.getRandom().nextDouble() * 3)); //6..8
+                }
+            }
+        }
+        if (hitSomething) {
+            stats.numShotsFiredHit++;
+        } else {
+            // Miss - show the hit on the wall
+            map.addEntity(new BlastMark(blastTextures, map.getRandom(), p.x, p.y, GUN_BLAST_COUNTDOWN * 3 / 2));
+        }
+        return true;
+    }
+
+    /**
+     * Gets a hash of the state of the simulation: the tiles, the location of every entity, and
+     * the player. Two runs of the same recording must have the same hash.
+     */
+    public long getStateHash() {
+        long hash = 17;
+        hash = hash(hash, map.getTileTypes());
+        hash = hash(hash, map.getTileSubtypes());
+        hash = hash(hash, map.getTileStates());
+        hash = hash(hash, map.getTileRenderStates());
+        for (Entity entity : map.getEntities()) {
+            hash = hash(hash, Float.floatToIntBits(entity.getX()));
+            hash = hash(hash, Float.floatToIntBits(entity.getY()));
+            hash = hash(hash, Float.floatToIntBits(entity.getZ()));
+        }
+        Player player = map.getPlayer();
+        hash = hash(hash, Float.floatToIntBits(player.getDirection()));
+        hash = hash(hash, player.getHealth());
+        hash = hash(hash, player.getAmmo());
+        hash = hash(hash, player.getKills());
+        hash = hash(hash, player.getSecrets());
+        hash = hash(hash, Float.floatToIntBits(runVelocity));
+        hash = hash(hash, Float.floatToIntBits(strafeVelocity));
+        hash = hash(hash, Float.floatToIntBits(turnVelocity));
+        hash = hash(hash, ticksUntilRefire);
+        return hash;
+    }
+
+    private static long hash(long hash, int[] values) {
+        for (int value : values) {
+            hash = hash(hash, value);
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, int value) {
+        return hash * 31 + value;
+    }
+}
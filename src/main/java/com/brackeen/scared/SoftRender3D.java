@@ -1,19 +1,26 @@
 package com.brackeen.scared;
 
 import com.brackeen.app.App;
+import com.brackeen.app.Profiler;
 import com.brackeen.app.view.View;
-import com.brackeen.scared.entity.Entity;
 import com.brackeen.scared.entity.Player;
 
+import java.awt.AlphaComposite;
+import java.awt.Composite;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.awt.image.DataBufferInt;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Simple raycasting engine.
@@ -32,7 +39,7 @@ public class SoftRender3D extends View {
     private static final int ANGLE_0 = 0;
 
     private static final int DEPTH_SCALE = 48;
-    private static final int DEPTH_MAX = 768;
+    static final int DEPTH_MAX = 768;
 
     private static final int MIN_FOV = 30;
     private static final int MAX_FOV = 120;
@@ -57,7 +64,7 @@ public class SoftRender3D extends View {
 
     // Fixed-point math
 
-    private static final int FRACTION_BITS = 16;
+    static final int FRACTION_BITS = 16;
     private static final int ONE = (1 << FRACTION_BITS);
     private static final int ONE_HALF = ONE >> 1;
     private static final int FRACTION_MASK = (1 << FRACTION_BITS) - 1;
@@ -115,37 +122,226 @@ public class SoftRender3D extends View {
     private static class Ray {
         int f_dist;
         int sliver;
-        int floorDrawY;
-        SoftTexture texture;
+        int textureId;
 
         public void reset() {
             f_dist = Integer.MAX_VALUE;
             sliver = 0;
-            floorDrawY = 0;
-            texture = null;
+            textureId = -1;
         }
     }
 
     private static final int WINDOW_WEST_EAST = 1;
     private static final int WINDOW_NORTH_SOUTH = 2;
 
+    /**
+     * Floor tiles marked as visible by one raycast strip. Each strip keeps its own marks so
+     * strips can be cast concurrently. The sets are merged, in strip order, after casting.
+     */
+    private static class VisibleFloorSet {
+
+        private static final byte MARK_VISIBLE = 1;
+        private static final byte MARK_CENTER = 2;
+
+        private int[] tileIndices = new int[64];
+        private int size;
+        private byte[] marks = new byte[0];
+        private int mapWidth;
+        private int mapHeight;
+
+        public void reset(FrameSnapshot frame) {
+            mapWidth = frame.getMapWidth();
+            mapHeight = frame.getMapHeight();
+            int numTiles = mapWidth * mapHeight;
+            if (marks.length != numTiles) {
+                marks = new byte[numTiles];
+            } else {
+                for (int i = 0; i < size; i++) {
+                    marks[tileIndices[i]] = 0;
+                }
+            }
+            size = 0;
+        }
+
+        public void add(int tileX, int tileY) {
+            int centerIndex = tileX + tileY * mapWidth;
+
+            // If this tile has already been added as a center tile, do nothing.
+            if (marks[centerIndex] == MARK_CENTER) {
+                return;
+            }
+
+            // Mark eight surrounding tiles as visible
+            for (int x = tileX - 1; x <= tileX + 1; x++) {
+                for (int y = tileY - 1; y <= tileY + 1; y++) {
+                    int index = x + y * mapWidth;
+                    if (x >= 0 && y >= 0 && x < mapWidth && y < mapHeight && marks[index] == 0) {
+                        marks[index] = MARK_VISIBLE;
+
+                        if (size == tileIndices.length) {
+                            tileIndices = Arrays.copyOf(tileIndices, size * 2);
+                        }
+                        tileIndices[size++] = index;
+                    }
+                }
+            }
+
+            // Mark this tile as a center tile
+            marks[centerIndex] = MARK_CENTER;
+        }
+    }
+
+    static final int STRIP_STAGE_RAYCAST = 0;
+    private static final int STRIP_STAGE_RAYCAST_AND_DRAW = 1;
+    private static final int STRIP_STAGE_DRAW_SPRITES = 2;
+
+    /**
+     * A range of columns. Casts the rays for the columns and, for tiled rendering, draws everything
+     * within the columns.
+     */
+    private class RenderStrip implements Runnable {
+
+        private final VisibleFloorSet visibleFloorSet = new VisibleFloorSet();
+        private final GridWalk xIntersections = new GridWalk();
+        private final GridWalk yIntersections = new GridWalk();
+        private int stage;
+        private int startX;
+        private int endX;
+
+        @Override
+        public void run() {
+            int viewWidth = dstBuffer.getWidth();
+            if (stage == STRIP_STAGE_DRAW_SPRITES) {
+                drawSprites(viewWidth - endX, viewWidth - startX);
+            } else {
+                visibleFloorSet.reset(frame);
+                visibleFloorSet.add(toIntFloor(f_cameraX), toIntFloor(f_cameraY));
+                for (int x = startX; x < endX; x++) {
+                    raycast(rays[x], x, visibleFloorSet, xIntersections, yIntersections);
+                }
+                if (stage == STRIP_STAGE_RAYCAST_AND_DRAW) {
+                    int viewHeight = dstBuffer.getHeight();
+                    drawBackground(viewWidth - endX, viewWidth - startX);
+                    drawWalls(startX, endX);
+                    if (transposedRenderingEnabled) {
+                        drawTransposedBuffer(viewWidth - endX, viewWidth - startX);
+                    }
+                    drawFloors(viewHeight / 2 + 1, viewHeight, startX, endX);
+                }
+            }
+        }
+    }
+
+    // Minimum number of columns for each raycast strip
+    private static final int MIN_RAYCAST_STRIP_WIDTH = 64;
+
+    /**
+     * Draws the floor for a range of rows.
+     */
+    private class FloorBand implements Runnable {
+
+        private int startY;
+        private int endY;
+
+        @Override
+        public void run() {
+            drawFloors(startY, endY, 0, dstBuffer.getWidth());
+        }
+    }
+
+    // Minimum number of rows for each floor band
+    private static final int MIN_FLOOR_BAND_HEIGHT = 16;
+
     private SoftTexture dstBuffer;
     private BufferedImage bufferedImage;
 
+    // Double-buffered for pipelined rendering. The frame is rendered to dstBuffer, and
+    // presentBuffer has the most recently finished frame.
+    private SoftTexture presentBuffer;
+    private BufferedImage presentBufferedImage;
+
+    // Frames are rendered at renderScale times the view size, and scaled up to the view in
+    // upscaledBuffer when presented. With dynamic resolution, the scale is chosen from the
+    // measured render time of full frames (lastFrameNanos).
+    private float renderScale = 1;
+    private boolean dynamicResolutionEnabled = false;
+    private final DynamicResolution dynamicResolution = new DynamicResolution();
+    private long lastFrameNanos;
+    private SoftTexture upscaledBuffer;
+    private BufferedImage upscaledBufferedImage;
+
+    // The app's presentation image, and its pixels, for presentDirect()
+    private BufferedImage presentationImage;
+    private int[] presentationPixels;
+
     private Map map;
+    private final BufferedImage backgroundImage;
     private SoftTexture background;
-    private final List<Tile> visibleFloors = new ArrayList<>();
-
-    private final SoftTexture[] doorTextures = new SoftTexture[4];
-    private final SoftTexture doorSideTexture;
-    private final SoftTexture windowTexture;
-    private final SoftTexture[] generatorTextures = new SoftTexture[2];
-    private final SoftTexture[] exitTextures = new SoftTexture[2];
+    // Backgrounds scaled to each height used, so a new render scale doesn't rescale the image
+    private final HashMap<Integer, SoftTexture> scaledBackgrounds = new HashMap<>();
+    private RenderWorkers renderWorkers = new RenderWorkers(Runtime.getRuntime().availableProcessors());
+    private RenderStrip[] renderStrips = new RenderStrip[0];
+    private int numRenderStrips;
+    private boolean tiledRenderingEnabled = false;
+
+    // When enabled, the background and walls are drawn to a transposed buffer, where each
+    // screen column is contiguous, then copied to dstBuffer before the floor is drawn.
+    private boolean transposedRenderingEnabled = false;
+    private SoftTexture transposedBuffer;
+
+    // The frame being rendered, and a spare to capture the next frame into
+    private FrameSnapshot frame = new FrameSnapshot();
+    private FrameSnapshot spareFrame = new FrameSnapshot();
+    private boolean pipelinedRenderingEnabled = false;
+    private ExecutorService pipelineExecutor;
+    private Future<?> pendingFrame;
+
+    // Merged visible floors (tile indices) and the visible sprites, sorted back to front
+    private byte[] visibleFloorMarks = new byte[0];
+    private int[] visibleFloors = new int[64];
+    private int numVisibleFloors;
+    private int[] visibleSprites = new int[16];
+    private int numVisibleSprites;
+    private float[] spriteDistances = new float[16];
+
+    // The depth sort is seeded with the order of the previous frame sorted (rankedFrame).
+    // spriteRanks has each of its sprites' positions in the sorted list, or -1 if not visible.
+    // spriteFoundOrder has the order the sprites of this frame were found in, to break ties.
+    private FrameSnapshot rankedFrame;
+    private int[] spriteRanks = new int[16];
+    private int[] previousSpriteRanks = new int[16];
+    private int numRankedSprites;
+    private int numRankedVisibleSprites;
+    private int[] spriteFoundOrder = new int[16];
+    private int[] seededSprites = new int[16];
+    private FloorBand[] floorBands = new FloorBand[0];
+    private boolean parallelFloorsEnabled = true;
+
+    // Every texture the renderer draws, addressed by id
+    private final TextureAtlas textureAtlas = new TextureAtlas();
+    private final int[] doorTextureIds = new int[4];
+    private final int doorSideTextureId;
+    private final int windowTextureId;
+    private final int[] generatorTextureIds = new int[2];
+    private final int[] exitTextureIds = new int[2];
 
     private float focalDistance;
     private boolean drawDepthShading = true;
-
-    // Fixed point numbers start with 'f_'
+    private final ShadeTable shadeTable = new ShadeTable(DEPTH_MAX);
+
+    // The camera set from the simulation, captured into the next frame
+    private float cameraX;
+    private float cameraY;
+    private float cameraZ;
+    private float cameraDirection;
+    // The camera as of the previous tick, and how far between it and the camera to render
+    private float previousCameraX;
+    private float previousCameraY;
+    private float previousCameraZ;
+    private float previousCameraDirection;
+    private float interpolation = 1;
+
+    // Fixed point numbers start with 'f_'. The camera of the frame being rendered.
     private int f_cameraX;
     private int f_cameraY;
     private int f_cameraZ;
@@ -159,7 +355,60 @@ public class SoftRender3D extends View {
 
     private Ray[] rays;
 
+    // For each ray, the first row below its wall. The floor is drawn from this row down.
+    private int[] floorDrawY;
+
+    // For each block of screen columns, the farthest wall. Sprites at or beyond it are hidden in
+    // the whole block.
+    private static final int OCCLUSION_BLOCK_BITS = 4;
+    private int[] occlusionBlockMaxDist;
+
+    // For each screen column, the first row of the background that is hidden by an opaque wall.
+    // The background is drawn only above this row.
+    private int[] skyEndY;
+
+    // Overdraw counting. Each stage adds the pixels it draws, and the total for the last frame
+    // is divided by the number of pixels in the frame.
+    private boolean overdrawCountingEnabled = false;
+    private final AtomicLong pixelsDrawn = new AtomicLong();
+    private float overdraw;
+
+    // Profiler stages. The view stage is the time in onDraw(), nested in the app's draw stage.
+    // It includes the render stages, unless rendering is pipelined.
+    private Profiler profiler;
+    private int profileViewStage;
+    private int profileDrawStage;
+    private int profileRaycastStage;
+    private int profileBackgroundStage;
+    private int profileWallsStage;
+    private int profileFloorsStage;
+    private int profileSpritesStage;
+    private int profileStripsStage;
+    private int profileChangesStage;
+
+    // Dirty-frame tracking. When the camera hasn't moved, the current frame is compared with the
+    // previous one, and only the screen columns that changed are redrawn. drawnBuffer is the
+    // buffer with the most recently drawn frame.
+    private boolean dirtyFrameTrackingEnabled = false;
+    private boolean previousFrameValid = false;
+    private SoftTexture drawnBuffer;
+    private Ray[] previousRays;
+    private int[] previousFloorDrawY;
+    private int[] previousVisibleSprites = new int[16];
+    private float[] previousSpriteDistances = new float[16];
+    private int numPreviousVisibleSprites;
+    private boolean[] dirtyColumns;
+
     public SoftRender3D(HashMap<String, SoftTexture> textureCache) {
+        this(textureCache, App.getApp().getImage("/background/background.png"));
+    }
+
+    /**
+     * Creates a renderer that doesn't need an App, for rendering offscreen.
+     */
+    public SoftRender3D(HashMap<String, SoftTexture> textureCache, BufferedImage backgroundImage) {
+        this.backgroundImage = backgroundImage;
+
         f_cosTable = new int[NUM_DEGREES];
         f_sinTable = new int[NUM_DEGREES];
         f_tanTable = new int[NUM_DEGREES];
@@ -171,17 +420,21 @@ public class SoftRender3D extends View {
             f_cotTable[i] = toFixedPoint(1 / Math.tan(angleToRadians(i)));
         }
 
-        for (int i = 0; i < doorTextures.length; i++) {
-            doorTextures[i] = textureCache.get("door0" + i + ".png");
+        // Add the textures up front, so that capturing a frame rarely adds any
+        for (SoftTexture texture : textureCache.values()) {
+            textureAtlas.getId(texture);
+        }
+        for (int i = 0; i < doorTextureIds.length; i++) {
+            doorTextureIds[i] = textureAtlas.getId(textureCache.get("door0" + i + ".png"));
         }
-        for (int i = 0; i < generatorTextures.length; i++) {
-            generatorTextures[i] = textureCache.get("generator0" + i + ".png");
+        for (int i = 0; i < generatorTextureIds.length; i++) {
+            generatorTextureIds[i] = textureAtlas.getId(textureCache.get("generator0" + i + ".png"));
         }
-        for (int i = 0; i < exitTextures.length; i++) {
-            exitTextures[i] = textureCache.get("exit0" + i + ".png");
+        for (int i = 0; i < exitTextureIds.length; i++) {
+            exitTextureIds[i] = textureAtlas.getId(textureCache.get("exit0" + i + ".png"));
         }
-        windowTexture = textureCache.get("window00.png");
-        doorSideTexture = textureCache.get("wall07.png");
+        windowTextureId = textureAtlas.getId(textureCache.get("window00.png"));
+        doorSideTextureId = textureAtlas.getId(textureCache.get("wall07.png"));
     }
 
     @Override
@@ -189,11 +442,23 @@ public class SoftRender3D extends View {
         onResize();
     }
 
+    @Override
+    public void onUnload() {
+        finishFrame();
+        if (pipelineExecutor != null) {
+            pipelineExecutor.shutdown();
+            pipelineExecutor = null;
+        }
+        renderWorkers.shutdown();
+    }
+
     public Map getMap() {
         return map;
     }
 
     public void setMap(Map map) {
+        finishFrame();
+        previousFrameValid = false;
         this.map = map;
         if (map != null) {
             Player player = map.getPlayer();
@@ -201,37 +466,275 @@ public class SoftRender3D extends View {
         }
     }
 
+    public int getNumRenderThreads() {
+        return renderWorkers.getNumThreads();
+    }
+
+    /**
+     * Sets the number of threads used to render. With one thread, everything is rendered on the
+     * calling thread. The rendered image is the same regardless of the number of threads.
+     */
+    public void setNumRenderThreads(int numThreads) {
+        if (numThreads != renderWorkers.getNumThreads()) {
+            finishFrame();
+            renderWorkers.shutdown();
+            renderWorkers = new RenderWorkers(numThreads);
+        }
+    }
+
+    public boolean isTiledRenderingEnabled() {
+        return tiledRenderingEnabled;
+    }
+
+    /**
+     * Sets whether the view is split into vertical strips, where each render thread casts the
+     * rays and draws the background, walls, floor, and sprites of its own strip. Otherwise each
+     * stage is drawn across the whole view before the next stage begins.
+     */
+    public void setTiledRenderingEnabled(boolean tiledRenderingEnabled) {
+        finishFrame();
+        this.tiledRenderingEnabled = tiledRenderingEnabled;
+    }
+
+    public boolean isTransposedRenderingEnabled() {
+        return transposedRenderingEnabled;
+    }
+
+    /**
+     * Sets whether the background and walls are drawn to a transposed buffer. Walls are drawn
+     * in vertical slivers, which write the frame buffer one row apart. In the transposed buffer
+     * a sliver is contiguous, and one cache-blocked transpose copies the result to the frame
+     * buffer. The rendered image is the same either way.
+     */
+    public void setTransposedRenderingEnabled(boolean transposedRenderingEnabled) {
+        finishFrame();
+        this.transposedRenderingEnabled = transposedRenderingEnabled;
+        if (!transposedRenderingEnabled) {
+            transposedBuffer = null;
+        }
+    }
+
+    public boolean isPipelinedRenderingEnabled() {
+        return pipelinedRenderingEnabled;
+    }
+
+    /**
+     * Sets whether frames are rendered on a separate thread. When enabled, onDraw() captures a
+     * snapshot of the current tick and starts rendering it, then presents the frame rendered
+     * from the previous snapshot. The simulation of the next tick runs while the frame renders,
+     * at the cost of one frame of latency: what is shown is always a frame behind the input.
+     * Disabled by default.
+     */
+    public void setPipelinedRenderingEnabled(boolean pipelinedRenderingEnabled) {
+        finishFrame();
+        this.pipelinedRenderingEnabled = pipelinedRenderingEnabled;
+    }
+
+    public boolean isParallelFloorsEnabled() {
+        return parallelFloorsEnabled;
+    }
+
+    /**
+     * Sets whether the floor is split into bands of rows that are drawn concurrently.
+     */
+    public void setParallelFloorsEnabled(boolean parallelFloorsEnabled) {
+        finishFrame();
+        this.parallelFloorsEnabled = parallelFloorsEnabled;
+    }
+
     public boolean isDepthShadingEnabled() {
         return drawDepthShading;
     }
 
     public void setDepthShadingEnabled(boolean drawDepthShading) {
+        finishFrame();
+        previousFrameValid = false;
         this.drawDepthShading = drawDepthShading;
     }
 
+    public boolean isOverdrawCountingEnabled() {
+        return overdrawCountingEnabled;
+    }
+
+    /**
+     * Sets whether the pixels drawn in each frame are counted. See getOverdraw().
+     */
+    public void setOverdrawCountingEnabled(boolean overdrawCountingEnabled) {
+        finishFrame();
+        this.overdrawCountingEnabled = overdrawCountingEnabled;
+        overdraw = 0;
+    }
+
+    /**
+     * Gets the number of pixels drawn in the last frame, per pixel of the frame, or 0 if
+     * overdraw counting is disabled. A value of 1 means every pixel was drawn once. When
+     * dirty-frame tracking redraws only the changed columns, only those pixels are counted.
+     */
+    public float getOverdraw() {
+        return overdraw;
+    }
+
+    private void countPixelsDrawn(int count) {
+        if (overdrawCountingEnabled) {
+            pixelsDrawn.addAndGet(count);
+        }
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Sets the profiler to record the render stages to, or null.
+     */
+    public void setProfiler(Profiler profiler) {
+        finishFrame();
+        this.profiler = profiler;
+        if (profiler != null) {
+            profileViewStage = profiler.getStage("view");
+            profileDrawStage = profiler.getStage(App.PROFILE_STAGE_DRAW);
+            profileRaycastStage = profiler.getStage("raycast");
+            profileBackgroundStage = profiler.getStage("background");
+            profileWallsStage = profiler.getStage("walls");
+            profileFloorsStage = profiler.getStage("floors");
+            profileSpritesStage = profiler.getStage("sprites");
+            profileStripsStage = profiler.getStage("strips");
+            profileChangesStage = profiler.getStage("changes");
+        }
+    }
+
+    private long startProfile() {
+        return profiler == null ? 0 : profiler.start();
+    }
+
+    /**
+     * Adds the time since startTime to a stage, and returns the time to start the next stage.
+     */
+    private long endProfile(int stage, long startTime) {
+        if (startTime == 0) {
+            return 0;
+        }
+        long time = System.nanoTime();
+        profiler.add(stage, time - startTime);
+        return time;
+    }
+
+    public boolean isDirtyFrameTrackingEnabled() {
+        return dirtyFrameTrackingEnabled;
+    }
+
+    /**
+     * Sets whether frames are compared with the previous frame. When the camera hasn't moved,
+     * the rays are reused (unless a door or movable wall moved), and only the screen columns
+     * where a sprite, door, or wall changed are redrawn. If nothing changed, nothing is drawn.
+     * The rendered image is the same either way.
+     */
+    public void setDirtyFrameTrackingEnabled(boolean dirtyFrameTrackingEnabled) {
+        finishFrame();
+        previousFrameValid = false;
+        this.dirtyFrameTrackingEnabled = dirtyFrameTrackingEnabled;
+    }
+
+    public float getRenderScale() {
+        return renderScale;
+    }
+
+    /**
+     * Sets the size of rendered frames relative to the view size, from 1/16 to 1. Frames
+     * smaller than the view are scaled up when presented. While dynamic resolution is enabled,
+     * the scale is set automatically.
+     */
+    public void setRenderScale(float renderScale) {
+        renderScale = Math.max(1.0f / DynamicResolution.SCALE_STEPS, Math.min(1, renderScale));
+        if (this.renderScale != renderScale) {
+            this.renderScale = renderScale;
+            if (dstBuffer != null) {
+                resizeBuffers();
+            }
+        }
+    }
+
+    public boolean isDynamicResolutionEnabled() {
+        return dynamicResolutionEnabled;
+    }
+
+    /**
+     * Sets whether the render scale is lowered when frames take too long to render for the
+     * target frame rate, and raised again when there is time to spare. When disabled, the
+     * render scale is set back to 1.
+     */
+    public void setDynamicResolutionEnabled(boolean dynamicResolutionEnabled) {
+        finishFrame();
+        this.dynamicResolutionEnabled = dynamicResolutionEnabled;
+        dynamicResolution.reset();
+        lastFrameNanos = 0;
+        setRenderScale(1);
+    }
+
+    public float getTargetFrameRate() {
+        return dynamicResolution.getTargetFrameRate();
+    }
+
+    /**
+     * Sets the frame rate that dynamic resolution tries to hold.
+     */
+    public void setTargetFrameRate(float targetFrameRate) {
+        finishFrame();
+        dynamicResolution.setTargetFrameRate(targetFrameRate);
+        lastFrameNanos = 0;
+        if (dynamicResolutionEnabled) {
+            setRenderScale(dynamicResolution.getScale());
+        }
+    }
+
     /**
      * Gets the view angle, in degrees, at location x within the view.
      */
     public float getAngleAt(int x) {
+        int viewWidth = Math.max(1, (int) getWidth());
+        x = x * rayAngleTable.length / viewWidth;
         x = Math.max(0, x);
         x = Math.min(x, rayAngleTable.length - 1);
-        return angleToDegrees((rayAngleTable[x] - cameraAngle) & NUM_DEGREES_MASK);
+        return angleToDegrees((rayAngleTable[x] - degreesToAngle(cameraDirection)) & NUM_DEGREES_MASK);
     }
 
     @Override
     public void onResize() {
+        scaledBackgrounds.clear();
+        if (upscaledBufferedImage != null) {
+            upscaledBufferedImage.flush();
+            upscaledBufferedImage = null;
+        }
+        upscaledBuffer = null;
+        resizeBuffers();
+    }
+
+    /**
+     * Creates the buffers and tables for the view size and render scale. Reuses scaled
+     * backgrounds, so that the render scale can change between frames.
+     */
+    private void resizeBuffers() {
         float fov = getWidth() * 45.0f / getHeight(); // 60 degrees for 640x480
         fov = Math.max(MIN_FOV, fov);
         fov = Math.min(MAX_FOV, fov);
-        int w = (int) getWidth();
-        int h = (int) getHeight();
+        int w = Math.max(1, Math.round((int) getWidth() * renderScale));
+        int h = Math.max(1, Math.round((int) getHeight() * renderScale));
+        finishFrame();
+        pendingFrame = null;
         dstBuffer = null;
+        presentBuffer = null;
         if (bufferedImage != null) {
             bufferedImage.flush();
             bufferedImage = null;
         }
+        if (presentBufferedImage != null) {
+            presentBufferedImage.flush();
+            presentBufferedImage = null;
+        }
         dstBuffer = new SoftTexture(w, h);
         bufferedImage = dstBuffer.getBufferedImageView();
+        presentBuffer = new SoftTexture(w, h);
+        presentBufferedImage = presentBuffer.getBufferedImageView();
 
         focalDistance = (float) (w / (2 * Math.tan(Math.toRadians(fov) / 2)));
 
@@ -242,27 +745,40 @@ public class SoftRender3D extends View {
         }
 
         rays = new Ray[w];
+        previousRays = new Ray[w];
         for (int i = 0; i < w; i++) {
             rays[i] = new Ray();
+            previousRays[i] = new Ray();
         }
+        floorDrawY = new int[w];
+        previousFloorDrawY = new int[w];
+        skyEndY = new int[w];
+        occlusionBlockMaxDist = new int[(w + (1 << OCCLUSION_BLOCK_BITS) - 1) >> OCCLUSION_BLOCK_BITS];
+        dirtyColumns = new boolean[w];
+        previousFrameValid = false;
+        drawnBuffer = null;
 
         // Scale the background so that it covers half the view height
-        background = null;
         int backgroundHeight = h / 2;
-        BufferedImage bgImage = App.getApp().getImage("/background/background.png");
-        if (bgImage.getHeight() != backgroundHeight) {
-            int backgroundWidth = bgImage.getWidth() * backgroundHeight / bgImage.getHeight();
-            bgImage = getScaledInstance(bgImage, backgroundWidth, backgroundHeight);
+        background = scaledBackgrounds.get(backgroundHeight);
+        if (background == null) {
+            BufferedImage bgImage = backgroundImage;
+            if (bgImage.getHeight() != backgroundHeight) {
+                int backgroundWidth = bgImage.getWidth() * backgroundHeight / bgImage.getHeight();
+                boolean smooth = App.getApp() == null || !App.getApp().isAutoPixelScale();
+                bgImage = getScaledInstance(bgImage, backgroundWidth, backgroundHeight, smooth);
+            }
+            background = new SoftTexture(bgImage);
+            scaledBackgrounds.put(backgroundHeight, background);
         }
-        background = new SoftTexture(bgImage);
     }
 
-    private static BufferedImage getScaledInstance(BufferedImage srcImage, int width, int height) {
+    private static BufferedImage getScaledInstance(BufferedImage srcImage, int width, int height, boolean smooth) {
         boolean srcIsOpaque = srcImage.getTransparency() == Transparency.OPAQUE;
         BufferedImage buf = new BufferedImage(width, height,
                 srcIsOpaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
         Graphics2D g = buf.createGraphics();
-        if (App.getApp().isAutoPixelScale()) {
+        if (!smooth) {
             g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
                     RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
         } else {
@@ -281,59 +797,635 @@ public class SoftRender3D extends View {
         return buf;
     }
 
+    /**
+     * Sets the camera. The previous camera is set to the same location, so the camera doesn't
+     * move when interpolating until setPreviousCamera() is called.
+     */
     public void setCamera(float x, float y, float z, float directionInDegrees) {
-        f_cameraX = toFixedPoint(x);
-        f_cameraY = toFixedPoint(y);
-        f_cameraZ = toFixedPoint(z);
-        cameraAngle = degreesToAngle(directionInDegrees);
+        cameraX = x;
+        cameraY = y;
+        cameraZ = z;
+        cameraDirection = directionInDegrees;
+        setPreviousCamera(x, y, z, directionInDegrees);
+    }
+
+    /**
+     * Sets the camera as of the previous tick, which frames are interpolated from.
+     */
+    public void setPreviousCamera(float x, float y, float z, float directionInDegrees) {
+        previousCameraX = x;
+        previousCameraY = y;
+        previousCameraZ = z;
+        previousCameraDirection = directionInDegrees;
+    }
+
+    public float getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * Sets how far between the previous tick and the current tick frames are rendered, from 0 to
+     * 1. The camera and sprites are interpolated, so frames drawn between ticks show smooth
+     * motion. The default, 1, renders the current tick. Picking, like getAngleAt(), always uses
+     * the current camera.
+     */
+    public void setInterpolation(float interpolation) {
+        this.interpolation = Math.max(0, Math.min(1, interpolation));
     }
 
     @Override
     public void onDraw(Graphics2D g) {
         if (map != null) {
-            List<Entity> visibleEntities = raycast();
+            long profileStartTime = startProfile();
+            if (pipelinedRenderingEnabled) {
+                if (pendingFrame == null) {
+                    // Nothing in flight. Render this frame now, and present it
+                    captureFrame();
+                    drawFrame();
+                } else {
+                    finishFrame();
+                }
+                if (drawnBuffer == dstBuffer) {
+                    swapBuffers();
+                }
+                // No frame is in flight, so the buffers can be resized. The finished frame is
+                // presented from its own buffer either way.
+                SoftTexture finishedBuffer = presentBuffer;
+                BufferedImage finishedImage = presentBufferedImage;
+                updateDynamicResolution();
+
+                captureFrame();
+                if (pipelineExecutor == null) {
+                    pipelineExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "SoftRender3D");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+                pendingFrame = pipelineExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        drawFrame();
+                    }
+                });
+                present(g, finishedBuffer, finishedImage);
+            } else {
+                render();
+                present(g, dstBuffer, bufferedImage);
+                updateDynamicResolution();
+            }
+            if (profileStartTime != 0) {
+                profiler.endNested(profileViewStage, profileDrawStage, profileStartTime);
+            }
+        }
+    }
+
+    /**
+     * Draws a finished frame to the view, scaled up if it is smaller than the view.
+     */
+    private void present(Graphics2D g, SoftTexture buffer, BufferedImage image) {
+        int w = (int) getWidth();
+        int h = (int) getHeight();
+        if (presentDirect(g, buffer, w, h)) {
+            return;
+        }
+        if (buffer.getWidth() == w && buffer.getHeight() == h) {
+            g.drawImage(image, null, null);
+        } else if (w > 0 && h > 0) {
+            if (upscaledBuffer == null || upscaledBuffer.getWidth() != w || upscaledBuffer.getHeight() != h) {
+                if (upscaledBufferedImage != null) {
+                    upscaledBufferedImage.flush();
+                }
+                upscaledBuffer = new SoftTexture(w, h);
+                upscaledBufferedImage = upscaledBuffer.getBufferedImageView();
+            }
+            upscaledBuffer.drawScaled(buffer);
+            g.drawImage(upscaledBufferedImage, null, null);
+        }
+    }
+
+    /**
+     * Scales a finished frame straight into the app's presentation image, if the scene is being
+     * drawn to one. This skips the copy to the image and the scaled blit of the image to the
+     * screen. Returns false if the frame must be drawn with Java2D instead.
+     */
+    private boolean presentDirect(Graphics2D g, SoftTexture buffer, int w, int h) {
+        App app = App.getApp();
+        BufferedImage target = app == null ? null : app.getPresentationImage();
+        if (target == null || w <= 0 || h <= 0 || g.getClip() != null) {
+            return false;
+        }
+        AffineTransform transform = g.getTransform();
+        int transformType = transform.getType() &
+                ~(AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE);
+        if (transformType != 0 || transform.getScaleX() <= 0) {
+            return false;
+        }
+        Composite composite = g.getComposite();
+        if (!(composite instanceof AlphaComposite) || ((AlphaComposite) composite).getAlpha() < 1) {
+            return false;
+        }
+        if (presentationImage != target) {
+            presentationImage = target;
+            presentationPixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        }
+        double scale = transform.getScaleX();
+        int x = (int) Math.round(transform.getTranslateX());
+        int y = (int) Math.round(transform.getTranslateY());
+        buffer.drawScaled(presentationPixels, target.getWidth(), target.getHeight(), x, y,
+                (int) Math.round(w * scale), (int) Math.round(h * scale));
+        return true;
+    }
+
+    /**
+     * With dynamic resolution, adds the render time of the last full frame, and resizes the
+     * buffers if the render scale changed. Must be called when no frame is in flight.
+     */
+    private void updateDynamicResolution() {
+        if (dynamicResolutionEnabled && lastFrameNanos > 0) {
+            long nanos = lastFrameNanos;
+            lastFrameNanos = 0;
+            if (dynamicResolution.addFrame(nanos)) {
+                setRenderScale(dynamicResolution.getScale());
+            }
+        }
+    }
+
+    /**
+     * Renders a frame from the current map and camera to the frame buffer, on the calling
+     * thread. This is what onDraw() does when pipelined rendering is disabled.
+     */
+    public void render() {
+        finishFrame();
+        pendingFrame = null;
+        captureFrame();
+        drawFrame();
+        if (drawnBuffer != dstBuffer) {
+            swapBuffers();
+        }
+    }
+
+    /**
+     * Gets the atlas of the textures the renderer draws.
+     */
+    TextureAtlas getTextureAtlas() {
+        return textureAtlas;
+    }
+
+    /**
+     * Gets the buffer that render() draws to, at the view size times the render scale. The buffer
+     * is replaced when the view is resized or the render scale changes.
+     */
+    public SoftTexture getFrameBuffer() {
+        return dstBuffer;
+    }
+
+    /**
+     * Captures the map and camera as of the current tick, or interpolated from the previous tick.
+     * Called on the simulation thread.
+     */
+    private void captureFrame() {
+        FrameSnapshot nextFrame = spareFrame;
+        if (interpolation >= 1) {
+            nextFrame.capture(map, textureAtlas, cameraX, cameraY, cameraZ, cameraDirection, 1);
+        } else {
+            // Turn the short way around
+            float turn = cameraDirection - previousCameraDirection;
+            turn -= 360 * Math.round(turn / 360);
+            nextFrame.capture(map, textureAtlas,
+                    FrameSnapshot.lerp(previousCameraX, cameraX, interpolation),
+                    FrameSnapshot.lerp(previousCameraY, cameraY, interpolation),
+                    FrameSnapshot.lerp(previousCameraZ, cameraZ, interpolation),
+                    previousCameraDirection + turn * interpolation, interpolation);
+        }
+        spareFrame = frame;
+        frame = nextFrame;
+    }
+
+    /**
+     * Waits for the frame being rendered on the pipeline thread, if any. The wait can't be
+     * interrupted, because the caller is about to use the frame's buffers. If the thread is
+     * interrupted while waiting, its interrupt flag is set again once the frame is finished.
+     */
+    private void finishFrame() {
+        if (pendingFrame != null) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        pendingFrame.get();
+                        break;
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException ex) {
+                pendingFrame = null;
+                throw new RuntimeException(ex.getCause());
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void swapBuffers() {
+        SoftTexture tempBuffer = presentBuffer;
+        BufferedImage tempImage = presentBufferedImage;
+        presentBuffer = dstBuffer;
+        presentBufferedImage = bufferedImage;
+        dstBuffer = tempBuffer;
+        bufferedImage = tempImage;
+    }
+
+    /**
+     * Renders the current frame snapshot to dstBuffer. Reads only the snapshot, so it can run
+     * while the simulation modifies the map.
+     */
+    private void drawFrame() {
+        long startTime = System.nanoTime();
+        f_cameraX = toFixedPoint(frame.getCameraX());
+        f_cameraY = toFixedPoint(frame.getCameraY());
+        f_cameraZ = toFixedPoint(frame.getCameraZ());
+        cameraAngle = degreesToAngle(frame.getCameraDirection());
+
+        if (transposedRenderingEnabled && (transposedBuffer == null ||
+                transposedBuffer.getWidth() != dstBuffer.getHeight() ||
+                transposedBuffer.getHeight() != dstBuffer.getWidth())) {
+            transposedBuffer = new SoftTexture(dstBuffer.getHeight(), dstBuffer.getWidth());
+        }
+
+        pixelsDrawn.set(0);
+
+        // The previous frame is in spareFrame
+        if (dirtyFrameTrackingEnabled && previousFrameValid &&
+                frame.hasSameCamera(spareFrame) && frame.hasSameTiles(spareFrame)) {
+            long profileStartTime = startProfile();
+            drawChangedColumns(spareFrame);
+            endProfile(profileChangesStage, profileStartTime);
+            // Not a measure of the cost of a frame
+            lastFrameNanos = 0;
+            updateOverdraw();
+            return;
+        }
+
+        long profileStartTime = startProfile();
+        if (tiledRenderingEnabled) {
+            raycast(STRIP_STAGE_RAYCAST_AND_DRAW);
+            profileStartTime = endProfile(profileStripsStage, profileStartTime);
+
+            // Sprites can be seen from tiles found by any strip, so they are drawn after
+            // the strips' visible floors are merged. Each strip draws the sprite columns
+            // within it.
+            if (numVisibleSprites > 0) {
+                for (int i = 0; i < numRenderStrips; i++) {
+                    renderStrips[i].stage = STRIP_STAGE_DRAW_SPRITES;
+                }
+                renderWorkers.invokeAll(renderStrips, numRenderStrips);
+            }
+            endProfile(profileSpritesStage, profileStartTime);
+        } else {
+            raycast(STRIP_STAGE_RAYCAST);
+            profileStartTime = endProfile(profileRaycastStage, profileStartTime);
 
-            drawBackground();
-            drawWalls();
+            int viewWidth = dstBuffer.getWidth();
+            drawBackground(0, viewWidth);
+            profileStartTime = endProfile(profileBackgroundStage, profileStartTime);
+            drawWalls(0, viewWidth);
+            if (transposedRenderingEnabled) {
+                drawTransposedBuffer(0, viewWidth);
+            }
+            profileStartTime = endProfile(profileWallsStage, profileStartTime);
             drawFloors();
-            drawEntities(visibleEntities);
+            profileStartTime = endProfile(profileFloorsStage, profileStartTime);
+            drawSprites(0, viewWidth);
+            endProfile(profileSpritesStage, profileStartTime);
+        }
+        drawnBuffer = dstBuffer;
+        previousFrameValid = true;
+        lastFrameNanos = System.nanoTime() - startTime;
+        updateOverdraw();
+    }
 
-            g.drawImage(bufferedImage, null, null);
+    private void updateOverdraw() {
+        if (overdrawCountingEnabled) {
+            overdraw = (float) pixelsDrawn.get() / (dstBuffer.getWidth() * dstBuffer.getHeight());
         }
     }
 
-    private void drawBackground() {
+    /**
+     * Draws the screen columns that changed since the previous frame, which has the same camera
+     * and tiles. The other columns are copied from the previous frame, if it isn't already in
+     * dstBuffer. If nothing changed, nothing is drawn and drawnBuffer is left as is.
+     */
+    private void drawChangedColumns(FrameSnapshot previousFrame) {
+        int viewWidth = dstBuffer.getWidth();
+        int viewHeight = dstBuffer.getHeight();
+        Arrays.fill(dirtyColumns, false);
+
+        int[] tempVisibleSprites = previousVisibleSprites;
+        float[] tempSpriteDistances = previousSpriteDistances;
+        previousVisibleSprites = visibleSprites;
+        previousSpriteDistances = spriteDistances;
+        numPreviousVisibleSprites = numVisibleSprites;
+        visibleSprites = tempVisibleSprites;
+        spriteDistances = tempSpriteDistances;
+
+        if (frame.hasSameTileRenderStates(previousFrame) && frame.hasSameSkippableBlocks(previousFrame)) {
+            // The rays and visible floors are the same
+            findVisibleSprites();
+        } else {
+            // A door or movable wall moved, or a sprite moved next to a block that the rays
+            // skipped, so the visible floors may be different. Cast the rays again, and redraw
+            // the columns where the wall changed.
+            Ray[] tempRays = previousRays;
+            int[] tempFloorDrawY = previousFloorDrawY;
+            previousRays = rays;
+            previousFloorDrawY = floorDrawY;
+            rays = tempRays;
+            floorDrawY = tempFloorDrawY;
+            raycast(STRIP_STAGE_RAYCAST);
+            for (int x = 0; x < viewWidth; x++) {
+                Ray ray = rays[x];
+                Ray previousRay = previousRays[x];
+                if (ray.f_dist == previousRay.f_dist && ray.sliver == previousRay.sliver &&
+                        ray.textureId == previousRay.textureId) {
+                    floorDrawY[x] = previousFloorDrawY[x];
+                } else {
+                    dirtyColumns[viewWidth - x - 1] = true;
+                }
+            }
+        }
+
+        markChangedSprites(previousFrame);
+
+        int x = 0;
+        while (x < viewWidth) {
+            if (!dirtyColumns[x]) {
+                x++;
+                continue;
+            }
+            int x1 = x;
+            while (x < viewWidth && dirtyColumns[x]) {
+                x++;
+            }
+            if (drawnBuffer != dstBuffer) {
+                // Pipelined: dstBuffer has an older frame
+                int[] srcData = drawnBuffer.getData();
+                System.arraycopy(srcData, 0, dstBuffer.getData(), 0, srcData.length);
+                drawnBuffer = dstBuffer;
+            }
+            drawBackground(x1, x);
+            drawWalls(viewWidth - x, viewWidth - x1);
+            if (transposedRenderingEnabled) {
+                drawTransposedBuffer(x1, x);
+            }
+            drawFloors(viewHeight / 2 + 1, viewHeight, viewWidth - x, viewWidth - x1);
+            drawSprites(x1, x);
+        }
+    }
+
+    /**
+     * Marks the screen columns of sprites that moved, changed, appeared, or disappeared since the
+     * previous frame. Both lists of visible sprites are sorted back to front, so unchanged
+     * sprites appear in the same order in each.
+     */
+    private void markChangedSprites(FrameSnapshot previousFrame) {
+        int i = 0;
+        int j = 0;
+        while (i < numPreviousVisibleSprites || j < numVisibleSprites) {
+            if (i < numPreviousVisibleSprites && j < numVisibleSprites) {
+                int previousSprite = previousVisibleSprites[i];
+                int sprite = visibleSprites[j];
+                float previousDist = previousSpriteDistances[previousSprite];
+                float dist = spriteDistances[sprite];
+                if (previousDist == dist && frame.isSameSprite(sprite, previousFrame, previousSprite)) {
+                    i++;
+                    j++;
+                } else if (previousDist > dist) {
+                    markSpriteColumns(previousFrame, previousSprite, previousDist);
+                    i++;
+                } else if (dist > previousDist) {
+                    markSpriteColumns(frame, sprite, dist);
+                    j++;
+                } else {
+                    markSpriteColumns(previousFrame, previousSprite, previousDist);
+                    markSpriteColumns(frame, sprite, dist);
+                    i++;
+                    j++;
+                }
+            } else if (i < numPreviousVisibleSprites) {
+                int previousSprite = previousVisibleSprites[i++];
+                markSpriteColumns(previousFrame, previousSprite, previousSpriteDistances[previousSprite]);
+            } else {
+                int sprite = visibleSprites[j++];
+                markSpriteColumns(frame, sprite, spriteDistances[sprite]);
+            }
+        }
+    }
+
+    /**
+     * Marks the screen columns a sprite is drawn in, as in drawSprites(), plus one column on each
+     * side.
+     */
+    private void markSpriteColumns(FrameSnapshot snapshot, int sprite, float dist) {
+        if (dist <= 0) {
+            return;
+        }
+        int viewWidth = dstBuffer.getWidth();
+        float cameraX = toFloat(f_cameraX);
+        float cameraY = toFloat(f_cameraY);
+        float cosAngle = (float) Math.cos(angleToRadians(cameraAngle));
+        float sinAngle = (float) Math.sin(angleToRadians(cameraAngle));
+        float dx = snapshot.getSpriteX()[sprite] - cameraX;
+        float dy = snapshot.getSpriteY()[sprite] - cameraY;
+        float thing = dx * sinAngle + dy * cosAngle;
+        int index = snapshot.getSpriteTextureIds()[sprite] << TextureAtlas.LEVEL_BITS;
+        float w = textureAtlas.getWidths()[index] * snapshot.getSpriteTextureScales()[sprite];
+        float renderWidth = focalDistance * w / dist;
+        if (renderWidth > viewWidth * 4) {
+            return;
+        }
+        int f_renderX = toFixedPoint(focalDistance * thing / dist + (viewWidth - renderWidth - 1) / 2);
+        int x1 = toIntCeil(f_renderX);
+        int x2 = x1 + toIntFloor(toFixedPoint(renderWidth));
+        x1 = Math.max(0, x1 - 1);
+        x2 = Math.min(viewWidth, x2 + 1);
+        for (int x = x1; x < x2; x++) {
+            dirtyColumns[x] = true;
+        }
+    }
+
+    /**
+     * Draws the background from screen column clipX1 (inclusive) to clipX2 (exclusive). The
+     * rays must be cast. The background is drawn only above the walls that will cover it.
+     */
+    private void drawBackground(int clipX1, int clipX2) {
         if (RENDER_TEST) {
-            Arrays.fill(dstBuffer.getData(), 0xffffff00);
+            int[] dstData = dstBuffer.getData();
+            int dstWidth = dstBuffer.getWidth();
+            for (int y = 0; y < dstBuffer.getHeight(); y++) {
+                Arrays.fill(dstData, y * dstWidth + clipX1, y * dstWidth + clipX2, 0xffffff00);
+            }
         } else {
+            findSkyEnds(clipX1, clipX2);
             int bd = background.getWidth() * 2;
             int backgroundX = (cameraAngle & NUM_DEGREES_MASK) * bd / NUM_DEGREES - bd;
-            dstBuffer.draw(background, backgroundX, 0, true);
-            dstBuffer.draw(background, backgroundX + background.getWidth(), 0, true);
-            dstBuffer.draw(background, backgroundX + background.getWidth() * 2, 0, true);
+            drawBackground(backgroundX, clipX1, clipX2);
+            drawBackground(backgroundX + background.getWidth(), clipX1, clipX2);
+            drawBackground(backgroundX + background.getWidth() * 2, clipX1, clipX2);
         }
     }
 
-    private void drawWalls() {
-        int f_focalDistance = toFixedPoint(focalDistance);
+    /**
+     * Sets skyEndY for screen columns clipX1 (inclusive) to clipX2 (exclusive). A wall hides the
+     * background from its top row down if the mip level drawWalls() will use is opaque.
+     * Translucent walls are drawn over the whole background.
+     */
+    private void findSkyEnds(int clipX1, int clipX2) {
+        int viewWidth = dstBuffer.getWidth();
+        int backgroundHeight = background.getHeight();
+        int[] alphaTypes = textureAtlas.getAlphaTypes();
+        for (int x = clipX1; x < clipX2; x++) {
+            Ray ray = rays[viewWidth - x - 1];
+            int skyEnd = backgroundHeight;
+            if (ray.f_dist >= 0 && ray.f_dist < Integer.MAX_VALUE) {
+                int f_wallTop = getWallTop(ray);
+                int f_wallBottom = getWallBottom(ray);
+                if (f_wallBottom > f_wallTop) {
+                    int wallY = toIntCeil(f_wallTop);
+                    int wallHeight = toIntCeil(f_wallBottom) - wallY;
+                    int level = textureAtlas.getLevel(ray.textureId, wallHeight);
+                    if (alphaTypes[(ray.textureId << TextureAtlas.LEVEL_BITS) + level] == TextureAtlas.ALPHA_OPAQUE) {
+                        skyEnd = Math.max(0, Math.min(skyEnd, wallY));
+                    }
+                }
+            }
+            skyEndY[x] = skyEnd;
+        }
+    }
+
+    private void drawBackground(int backgroundX, int clipX1, int clipX2) {
+        int x1 = Math.max(backgroundX, clipX1);
+        int x2 = Math.min(backgroundX + background.getWidth(), clipX2);
+        if (x2 > x1) {
+            int[] srcData = background.getColumnData();
+            int srcHeight = background.getHeight();
+            if (transposedRenderingEnabled) {
+                // Each column of the background is a row of the transposed buffer
+                int[] dstData = transposedBuffer.getData();
+                int dstWidth = transposedBuffer.getWidth();
+                for (int x = x1; x < x2; x++) {
+                    System.arraycopy(srcData, (x - backgroundX) * srcHeight, dstData, x * dstWidth, skyEndY[x]);
+                    countPixelsDrawn(skyEndY[x]);
+                }
+            } else {
+                // Rows above every wall are copied whole. Below that, each column is copied down
+                // to its wall.
+                int minSkyEnd = srcHeight;
+                for (int x = x1; x < x2; x++) {
+                    minSkyEnd = Math.min(minSkyEnd, skyEndY[x]);
+                }
+                dstBuffer.draw(background, x1, 0, x1 - backgroundX, 0, x2 - x1, minSkyEnd, true);
+                countPixelsDrawn((x2 - x1) * minSkyEnd);
+                int[] dstData = dstBuffer.getData();
+                int dstWidth = dstBuffer.getWidth();
+                for (int x = x1; x < x2; x++) {
+                    int length = skyEndY[x] - minSkyEnd;
+                    if (length > 0) {
+                        SpanKernels.copyColumn(srcData, (x - backgroundX) * srcHeight, minSkyEnd << FRACTION_BITS, ONE,
+                                dstData, x + minSkyEnd * dstWidth, dstWidth, length);
+                        countPixelsDrawn(length);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the background and walls of screen columns clipX1 (inclusive) to clipX2 (exclusive)
+     * from the transposed buffer. Rows where the floor will be drawn are skipped.
+     */
+    private void drawTransposedBuffer(int clipX1, int clipX2) {
+        int viewWidth = dstBuffer.getWidth();
+        int viewHeight = dstBuffer.getHeight();
+        int endY = viewHeight / 2 + 1;
+        for (int x = clipX1; x < clipX2; x++) {
+            endY = Math.max(endY, floorDrawY[viewWidth - x - 1]);
+        }
+        dstBuffer.drawTransposed(transposedBuffer, clipX1, clipX2, 0, Math.min(endY, viewHeight));
+    }
+
+    /**
+     * Draws the walls for rays startX (inclusive) to endX (exclusive).
+     */
+    void drawWalls(int startX, int endX) {
         int dstWidth = dstBuffer.getWidth();
-        int dstHeight = dstBuffer.getHeight();
-        int f_dstMidY = ((dstHeight / 2) << FRACTION_BITS);
-        for (int x = 0; x < dstWidth; x++) {
+        for (int x = startX; x < endX; x++) {
             Ray ray = rays[x];
             if (ray.f_dist >= 0 && ray.f_dist < Integer.MAX_VALUE) {
-                int f_wallBottom = f_dstMidY + mulDiv(f_cameraZ, f_focalDistance, ray.f_dist);
-                int f_wallTop = f_dstMidY - mulDiv(ONE - f_cameraZ, f_focalDistance, ray.f_dist);
+                int f_wallBottom = getWallBottom(ray);
+                int f_wallTop = getWallTop(ray);
                 if (f_wallBottom > f_wallTop) {
                     int depth = drawDepthShading ? Math.min(DEPTH_MAX, toIntFloor(ray.f_dist * DEPTH_SCALE)) : 0;
-                    ray.floorDrawY = drawTextureSliver(ray.texture, true, ray.sliver, depth,
-                            dstWidth - x - 1, f_wallTop, f_wallBottom);
+                    floorDrawY[x] = drawTextureSliver(ray.textureId, true, ray.sliver, depth,
+                            dstWidth - x - 1, f_wallTop, f_wallBottom, transposedRenderingEnabled);
                 }
             }
         }
     }
 
-    private void drawFloors() {
+    /**
+     * Gets the screen row of the top of a ray's wall, in fixed point.
+     */
+    private int getWallTop(Ray ray) {
+        int f_dstMidY = (dstBuffer.getHeight() / 2) << FRACTION_BITS;
+        return f_dstMidY - mulDiv(ONE - f_cameraZ, toFixedPoint(focalDistance), ray.f_dist);
+    }
+
+    /**
+     * Gets the screen row of the bottom of a ray's wall, in fixed point.
+     */
+    private int getWallBottom(Ray ray) {
+        int f_dstMidY = (dstBuffer.getHeight() / 2) << FRACTION_BITS;
+        return f_dstMidY + mulDiv(f_cameraZ, toFixedPoint(focalDistance), ray.f_dist);
+    }
+
+    void drawFloors() {
+        int viewHeight = dstBuffer.getHeight();
+        int firstY = viewHeight / 2 + 1;
+        int numBands = 1;
+        if (parallelFloorsEnabled) {
+            numBands = renderWorkers.getNumJobs(viewHeight - firstY, MIN_FLOOR_BAND_HEIGHT);
+        }
+        if (numBands <= 1) {
+            drawFloors(firstY, viewHeight, 0, dstBuffer.getWidth());
+            return;
+        }
+        if (floorBands.length < numBands) {
+            FloorBand[] newBands = Arrays.copyOf(floorBands, numBands);
+            for (int i = floorBands.length; i < numBands; i++) {
+                newBands[i] = new FloorBand();
+            }
+            floorBands = newBands;
+        }
+        for (int i = 0; i < numBands; i++) {
+            floorBands[i].startY = firstY + (viewHeight - firstY) * i / numBands;
+            floorBands[i].endY = firstY + (viewHeight - firstY) * (i + 1) / numBands;
+        }
+        renderWorkers.invokeAll(floorBands, numBands);
+    }
+
+    /**
+     * Draws the floor from row startY (inclusive) to row endY (exclusive), for rays startX
+     * (inclusive) to endX (exclusive). Pixels are independent of each other, so bands of rows or
+     * strips of columns can be drawn concurrently.
+     */
+    private void drawFloors(int startY, int endY, int startX, int endX) {
         int[] dstData = dstBuffer.getData();
         int viewWidth = dstBuffer.getWidth();
         int viewHeight = dstBuffer.getHeight();
@@ -364,95 +1456,119 @@ public class SoftRender3D extends View {
         long tIncStartSin = -f_cameraZ * f_sinCameraAngle;
         long tIncStartCos = -f_cameraZ * f_cosCameraAngle;
 
-        int firstY = viewHeight / 2 + 1;
-        int startDestOffset = firstY * viewWidth + (viewWidth - 1);
-        int lastMapX = -1;
-        int lastMapY = -1;
-
-        SoftTexture defaultFloorTexture = map.getDefaultFloorTexture();
-        int[] textureData = defaultFloorTexture.getData();
-        int textureSizeBits = defaultFloorTexture.getSizeBits();
+        int startDestOffset = startY * viewWidth + (viewWidth - 1);
 
-        int startX = 0;
-        int endX = viewWidth;
+        int[] tileTypes = frame.getTileTypes();
+        int[] tileTextureIds = frame.getTileTextureIds();
+        int defaultFloorTextureId = frame.getDefaultFloorTextureId();
+        SoftTexture[] levelTextures = textureAtlas.getLevelTextures();
+        int[] textureSizeBitsTable = textureAtlas.getSizeBits();
+        int[] textureAlphaTypes = textureAtlas.getAlphaTypes();
 
-        for (int currentY = firstY; currentY < viewHeight; currentY++) {
+        for (int currentY = startY; currentY < endY; currentY++) {
             int row = currentY - viewHeight / 2;
 
             int tx = (int) ((txStart / row) >> FRACTION_BITS) + f_cameraX;
             int ty = (int) ((tyStart / row) >> FRACTION_BITS) + f_cameraY;
 
-            long txInc1 = tIncStartSin / row;
-            long tyInc1 = tIncStartCos / row;
-
-            int txInc = (int) (txInc1 >> FRACTION_BITS);
-            int tyInc = (int) (tyInc1 >> FRACTION_BITS);
-
-            int fxInc = (int) (txInc1 & FRACTION_MASK);
-            int fyInc = (int) (tyInc1 & FRACTION_MASK);
-            int fx = startX * fxInc;
-            int fy = startX * fyInc;
-
-            int destOffset = startDestOffset - startX;
-            tx += startX * txInc;
-            ty += startX * tyInc;
+            // The floor location, with FRACTION_BITS extra fraction bits so that stepping
+            // across the row is exact. The tile is (int) (t >> 32).
+            long dtx = tIncStartSin / row;
+            long dty = tIncStartCos / row;
+            long t_x = ((long) tx << FRACTION_BITS) + startX * dtx;
+            long t_y = ((long) ty << FRACTION_BITS) + startX * dty;
 
             int f_dist = (int) (((long) f_cameraZ * f_focalDistance / row) >> FRACTION_BITS);
             int depth = drawDepthShading ? Math.min(DEPTH_MAX, toIntFloor(f_dist * DEPTH_SCALE)) : 0;
+            int shadeOffset = depth > ShadeTable.MIN_DEPTH ? shadeTable.getOffset(depth) : -1;
             int size = f_dist <= 0 ? Integer.MAX_VALUE : toIntFloor(div(f_focalDistance, f_dist));
 
-            for (int x = startX; x < endX; x++) {
-                if (currentY >= rays[x].floorDrawY) {
-                    int mapX = tx >> FRACTION_BITS;
-                    int mapY = ty >> FRACTION_BITS;
-
-                    if (mapX != lastMapX || mapY != lastMapY) {
-                        Tile tile = map.getTileAt(mapX, mapY);
-                        SoftTexture texture;
-                        if (tile == null || tile.type == Tile.TYPE_MOVABLE_WALL) {
-                            texture = defaultFloorTexture;
-                        } else {
-                            texture = tile.getTexture();
-                        }
-
-                        while (size < texture.getHeight() && texture.hasHalfSizeTexture()) {
-                            texture = texture.getHalfSizeTexture();
-                        }
-
-                        textureData = texture.getData();
-                        textureSizeBits = texture.getSizeBits();
+            int x = startX;
+            while (x < endX) {
+                // Skip columns where the wall covers this row
+                int runStartX = x;
+                while (x < endX && currentY < floorDrawY[x]) {
+                    x++;
+                }
+                t_x += (x - runStartX) * dtx;
+                t_y += (x - runStartX) * dty;
+                int runEndX = x;
+                while (runEndX < endX && currentY >= floorDrawY[runEndX]) {
+                    runEndX++;
+                }
 
-                        lastMapX = mapX;
-                        lastMapY = mapY;
+                // Draw the run, one span per tile
+                while (x < runEndX) {
+                    int mapX = (int) (t_x >> 32);
+                    int mapY = (int) (t_y >> 32);
+                    int spanLength = getSpanLength(t_x, dtx, runEndX - x);
+                    spanLength = getSpanLength(t_y, dty, spanLength);
+
+                    int tileIndex = frame.getTileIndex(mapX, mapY);
+                    int textureId;
+                    if (tileIndex < 0 || tileTypes[tileIndex] == Tile.TYPE_MOVABLE_WALL) {
+                        textureId = defaultFloorTextureId;
+                    } else {
+                        textureId = tileTextureIds[tileIndex];
                     }
+                    int textureIndex = (textureId << TextureAtlas.LEVEL_BITS) + textureAtlas.getLevel(textureId, size);
 
-                    int txTrans = ((tx & FRACTION_MASK) << textureSizeBits) >> FRACTION_BITS;
-                    int tyTrans = ((ty & FRACTION_MASK) << textureSizeBits) >> FRACTION_BITS;
-
+                    int destOffset = startDestOffset - x;
+                    countPixelsDrawn(spanLength);
                     if (RENDER_TEST) {
-                        dstData[destOffset] = ((mapX + mapY) & 1) == 0 ? 0xff660000 : 0xff000066;
+                        int color = ((mapX + mapY) & 1) == 0 ? 0xff660000 : 0xff000066;
+                        for (int i = 0; i < spanLength; i++) {
+                            dstData[destOffset--] = color;
+                        }
+                        t_x += spanLength * dtx;
+                        t_y += spanLength * dty;
                     } else {
-                        int srcColor = textureData[txTrans + (tyTrans << textureSizeBits)];
-                        drawPixel(dstData, destOffset, srcColor, depth);
+                        int[] textureData = levelTextures[textureIndex].getData();
+                        int textureSizeBits = textureSizeBitsTable[textureIndex];
+                        if (textureAlphaTypes[textureIndex] == TextureAtlas.ALPHA_OPAQUE) {
+                            SpanKernels.copyFloor(textureData, 0, textureSizeBits, t_x, t_y, dtx, dty,
+                                    dstData, destOffset, -1, spanLength, shadeTable, shadeOffset);
+                        } else {
+                            SpanKernels.blendFloor(textureData, 0, textureSizeBits, t_x, t_y, dtx, dty,
+                                    dstData, destOffset, -1, spanLength, shadeTable, shadeOffset);
+                        }
+                        t_x += spanLength * dtx;
+                        t_y += spanLength * dty;
                     }
+                    x += spanLength;
                 }
-                fx += fxInc;
-                fy += fyInc;
-
-                tx += txInc + (fx >> FRACTION_BITS);
-                ty += tyInc + (fy >> FRACTION_BITS);
-
-                fx &= FRACTION_MASK;
-                fy &= FRACTION_MASK;
-
-                destOffset--;
             }
             startDestOffset += viewWidth;
         }
     }
 
-    private void drawEntities(List<Entity> visibleEntities) {
-        if (visibleEntities.size() > 0) {
+    /**
+     * Gets the number of steps, up to maxLength, that a floor location t (as in drawFloors) can
+     * take before it crosses into the next tile.
+     */
+    private static int getSpanLength(long t, long dt, int maxLength) {
+        if (dt > 0) {
+            long distance = (((t >> 32) + 1) << 32) - t;
+            if ((maxLength - 1) * dt < distance) {
+                return maxLength;
+            }
+            return (int) ((distance + dt - 1) / dt);
+        } else if (dt < 0) {
+            long distance = t - ((t >> 32) << 32);
+            if ((maxLength - 1) * -dt <= distance) {
+                return maxLength;
+            }
+            return (int) (distance / -dt + 1);
+        } else {
+            return maxLength;
+        }
+    }
+
+    /**
+     * Draws the entities, clipped to screen column clipX1 (inclusive) to clipX2 (exclusive).
+     */
+    void drawSprites(int clipX1, int clipX2) {
+        if (numVisibleSprites > 0) {
             int viewWidth = dstBuffer.getWidth();
             int viewHeight = dstBuffer.getHeight();
             float cameraX = toFloat(f_cameraX);
@@ -460,23 +1576,32 @@ public class SoftRender3D extends View {
             float cameraZ = toFloat(f_cameraZ);
             float cosAngle = (float) Math.cos(angleToRadians(cameraAngle));
             float sinAngle = (float) Math.sin(angleToRadians(cameraAngle));
-            for (Entity entity : visibleEntities) {
-                SoftTexture texture = entity.getTexture();
-                float dist = entity.getDistanceFromCamera();
-                if (dist > 0 && texture != null) {
-                    float dx = entity.getX() - cameraX;
-                    float dy = entity.getY() - cameraY;
+            float[] spriteX = frame.getSpriteX();
+            float[] spriteY = frame.getSpriteY();
+            float[] spriteZ = frame.getSpriteZ();
+            int[] spriteTextureIds = frame.getSpriteTextureIds();
+            float[] spriteTextureScales = frame.getSpriteTextureScales();
+            int[] textureWidths = textureAtlas.getWidths();
+            int[] textureHeights = textureAtlas.getHeights();
+            for (int i = 0; i < numVisibleSprites; i++) {
+                int sprite = visibleSprites[i];
+                int textureId = spriteTextureIds[sprite];
+                float dist = spriteDistances[sprite];
+                if (dist > 0) {
+                    float dx = spriteX[sprite] - cameraX;
+                    float dy = spriteY[sprite] - cameraY;
                     float thing = dx * sinAngle + dy * cosAngle;
 
-                    float w = texture.getWidth() * entity.getTextureScale();
-                    float h = texture.getHeight() * entity.getTextureScale();
+                    int textureIndex = textureId << TextureAtlas.LEVEL_BITS;
+                    float w = textureWidths[textureIndex] * spriteTextureScales[sprite];
+                    float h = textureHeights[textureIndex] * spriteTextureScales[sprite];
                     float renderWidth = focalDistance * w / dist;
                     float renderHeight = focalDistance * h / dist;
                     int f_renderWidth = toFixedPoint(renderWidth);
                     int f_renderHeight = toFixedPoint(renderHeight);
                     int f_renderY = toFixedPoint(viewHeight / 2 -
                             renderHeight * (1 - cameraZ) -
-                            entity.getZ() * focalDistance / dist +
+                            spriteZ[sprite] * focalDistance / dist +
                             cameraZ * (focalDistance * (1 - h) / dist));
 
                     if (renderWidth > viewWidth * 4) {
@@ -486,40 +1611,158 @@ public class SoftRender3D extends View {
 
                     int f_renderX = toFixedPoint(focalDistance * thing / dist + (viewWidth - renderWidth - 1) / 2);
                     int x1 = toIntCeil(f_renderX);
-                    int x2 = Math.min(viewWidth, x1 + toIntFloor(f_renderWidth));
+                    int x2 = Math.min(clipX2, x1 + toIntFloor(f_renderWidth));
                     int depth = drawDepthShading ? Math.min(DEPTH_MAX, (int) (dist * DEPTH_SCALE)) : 0;
                     int f_dist = toFixedPoint(dist);
-                    for (int x = Math.max(x1, 0); x < x2; x++) {
-                        Ray ray = rays[viewWidth - x - 1];
-                        if (f_dist < ray.f_dist) {
-                            int f_sliver = div((x << FRACTION_BITS) - f_renderX, f_renderWidth);
-                            drawTextureSliver(texture, false, f_sliver, depth, x, f_renderY, f_renderY + f_renderHeight);
-                        }
-                    }
+                    drawSprite(textureId, depth, f_dist, f_renderX, f_renderWidth,
+                            f_renderY, f_renderY + f_renderHeight, Math.max(x1, clipX1), x2);
                 }
             }
         }
     }
 
-    private int drawTextureSliver(SoftTexture srcTexture, boolean srcOpaque, int f_sliver, int depth,
-                                  final int dstX, final int f_dstY1, final int f_dstY2) {
+    /**
+     * Gets the first screen column from startX (inclusive) to endX (exclusive) where a sprite at
+     * f_dist is in front of the wall, or endX if there isn't one. Blocks of columns where every
+     * wall is closer are skipped whole.
+     */
+    private int getNextVisibleColumn(int f_dist, int startX, int endX) {
+        int viewWidth = dstBuffer.getWidth();
+        int x = startX;
+        while (x < endX) {
+            if (f_dist >= occlusionBlockMaxDist[x >> OCCLUSION_BLOCK_BITS]) {
+                x = ((x >> OCCLUSION_BLOCK_BITS) + 1) << OCCLUSION_BLOCK_BITS;
+            } else if (f_dist >= rays[viewWidth - x - 1].f_dist) {
+                x++;
+            } else {
+                return x;
+            }
+        }
+        return endX;
+    }
+
+    /**
+     * Draws screen columns startX (inclusive) to endX (exclusive) of a sprite, where it is in
+     * front of the walls. Like drawTextureSliver() for each column, but the vertical setup is the
+     * same for every column, so it is done once, and only if a column is visible. Across each run
+     * of visible columns, the texture column is stepped without a division.
+     */
+    private void drawSprite(int textureId, int depth, int f_dist, int f_renderX, int f_renderWidth,
+                            int f_dstY1, int f_dstY2, int startX, int endX) {
+        int x = getNextVisibleColumn(f_dist, startX, endX);
+        if (x >= endX) {
+            return;
+        }
+
         int dstY = toIntCeil(f_dstY1);
         int dstHeight = toIntCeil(f_dstY2) - dstY;
+        int srcIndex = (textureId << TextureAtlas.LEVEL_BITS) + textureAtlas.getLevel(textureId, dstHeight);
+        int[] dstData = dstBuffer.getData();
+        int dstViewWidth = dstBuffer.getWidth();
+        int dstViewHeight = dstBuffer.getHeight();
+        int[] srcData = textureAtlas.getLevelTextures()[srcIndex].getColumnData();
+        int srcViewWidth = textureAtlas.getWidths()[srcIndex];
+        int srcViewHeight = textureAtlas.getHeights()[srcIndex];
+        int srcSizeBits = textureAtlas.getSizeBits()[srcIndex];
+        int srcAlphaType = textureAtlas.getAlphaTypes()[srcIndex];
+        int shadeOffset = depth > ShadeTable.MIN_DEPTH ? shadeTable.getOffset(depth) : -1;
+
+        int renderY = dstY;
+        int renderHeight = dstHeight;
+        if (renderY < 0) {
+            renderHeight += renderY;
+            renderY = 0;
+        }
+        if (renderY + renderHeight > dstViewHeight) {
+            renderHeight = dstViewHeight - renderY;
+        }
+        if (renderHeight <= 0) {
+            return;
+        }
+
+        // Top and bottom portions, as in drawTextureSliver()
+        int dstViewMidY = dstViewHeight / 2;
+        int f_srcMidY = mulDiv(toFixedPoint(dstViewMidY) - f_dstY1, toFixedPoint(srcViewHeight), f_dstY2 - f_dstY1);
+        f_srcMidY = (f_srcMidY + 128) & ~0xff; // Round to nearest 1/256th
+        int topY1 = renderY;
+        int topY2 = Math.min(dstViewMidY, renderY + renderHeight);
+        int f_topY = 0;
+        int f_topDy = 0;
+        if (topY2 > topY1) {
+            f_topDy = div(f_srcMidY, toFixedPoint(dstViewMidY) - f_dstY1);
+            f_topY = f_srcMidY - f_topDy * (dstViewMidY - topY1);
+        }
+        int bottomY1 = dstViewMidY;
+        int bottomY2 = renderY + renderHeight;
+        int f_bottomY = 0;
+        int f_bottomDy = 0;
+        if (bottomY2 > bottomY1) {
+            f_bottomY = f_srcMidY;
+            f_bottomDy = div(toFixedPoint(srcViewHeight) - f_srcMidY, f_dstY2 - toFixedPoint(dstViewMidY));
+        }
 
-        // Mip-mapping. Use half-size textures if available
-        while (dstHeight < srcTexture.getHeight() && srcTexture.hasHalfSizeTexture()) {
-            srcTexture = srcTexture.getHalfSizeTexture();
+        // f_sliver = div((x << FRACTION_BITS) - f_renderX, f_renderWidth), stepped as a quotient
+        // and remainder. The numerator grows by ONE << FRACTION_BITS per column.
+        long sliverStepQuotient = (1L << (FRACTION_BITS * 2)) / f_renderWidth;
+        long sliverStepRemainder = (1L << (FRACTION_BITS * 2)) % f_renderWidth;
+        while (x < endX) {
+            int runEndX = x + 1;
+            while (runEndX < endX && f_dist < rays[dstViewWidth - runEndX - 1].f_dist) {
+                runEndX++;
+            }
+            countPixelsDrawn(renderHeight * (runEndX - x));
+
+            long sliverNumerator = (long) ((x << FRACTION_BITS) - f_renderX) << FRACTION_BITS;
+            long sliverQuotient = sliverNumerator / f_renderWidth;
+            long sliverRemainder = sliverNumerator % f_renderWidth;
+            for (; x < runEndX; x++) {
+                int f_sliver = (int) sliverQuotient;
+                int srcX = toIntFloor(srcViewWidth * f_sliver);
+                int columnOffset = srcX << srcSizeBits;
+                if (topY2 > topY1) {
+                    drawColumnSpan(srcData, columnOffset, f_topY, f_topDy, dstData, x + topY1 * dstViewWidth,
+                            dstViewWidth, topY2 - topY1, srcAlphaType, shadeOffset);
+                }
+                if (bottomY2 > bottomY1) {
+                    drawColumnSpan(srcData, columnOffset, f_bottomY, f_bottomDy, dstData, x + bottomY1 * dstViewWidth,
+                            dstViewWidth, bottomY2 - bottomY1, srcAlphaType, shadeOffset);
+                }
+                sliverQuotient += sliverStepQuotient;
+                sliverRemainder += sliverStepRemainder;
+                if (sliverRemainder >= f_renderWidth) {
+                    sliverQuotient++;
+                    sliverRemainder -= f_renderWidth;
+                }
+            }
+            x = getNextVisibleColumn(f_dist, runEndX, endX);
         }
+    }
+
+    /**
+     * Draws a vertical sliver of a texture at screen column dstX, and returns the row below the
+     * last row drawn. If transposed, the sliver is drawn to the transposed buffer.
+     */
+    int drawTextureSliver(int textureId, boolean srcOpaque, int f_sliver, int depth,
+                          final int dstX, final int f_dstY1, final int f_dstY2, boolean transposed) {
+        int dstY = toIntCeil(f_dstY1);
+        int dstHeight = toIntCeil(f_dstY2) - dstY;
+
+        // Mip-mapping. Use the first level no taller than the sliver
+        final int srcIndex = (textureId << TextureAtlas.LEVEL_BITS) + textureAtlas.getLevel(textureId, dstHeight);
 
-        final int[] dstData = dstBuffer.getData();
+        final int[] dstData = transposed ? transposedBuffer.getData() : dstBuffer.getData();
         final int dstViewWidth = dstBuffer.getWidth();
         final int dstViewHeight = dstBuffer.getHeight();
-        final int[] srcData = srcTexture.getData();
-        final int srcViewWidth = srcTexture.getWidth();
-        final int srcViewHeight = srcTexture.getHeight();
-        final int srcSizeBits = srcTexture.getSizeBits();
+        final int dstStride = transposed ? 1 : dstViewWidth;
+        final int[] srcData = textureAtlas.getLevelTextures()[srcIndex].getColumnData();
+        final int srcViewWidth = textureAtlas.getWidths()[srcIndex];
+        final int srcViewHeight = textureAtlas.getHeights()[srcIndex];
+        final int srcSizeBits = textureAtlas.getSizeBits()[srcIndex];
+        final int srcAlphaType = textureAtlas.getAlphaTypes()[srcIndex];
+        final int shadeOffset = depth > ShadeTable.MIN_DEPTH ? shadeTable.getOffset(depth) : -1;
 
         int srcX = toIntFloor(srcViewWidth * f_sliver);
+        int srcOffset = srcX << srcSizeBits;
         int renderX = dstX;
         int renderY = dstY;
         int renderHeight = dstHeight;
@@ -532,6 +1775,7 @@ public class SoftRender3D extends View {
         }
 
         if (renderHeight > 0) {
+            countPixelsDrawn(renderHeight);
             final int dstViewMidY = dstViewHeight / 2;
             int f_srcMidY = mulDiv(toFixedPoint(dstViewMidY) - f_dstY1, toFixedPoint(srcViewHeight), f_dstY2 - f_dstY1);
             f_srcMidY = (f_srcMidY + 128) & ~0xff; // Round to nearest 1/256th
@@ -549,7 +1793,7 @@ public class SoftRender3D extends View {
             // Render in two passes - top portion, then bottom portion. f_dy might be is different each time.
             boolean firstPass = true;
             while (true) {
-                int renderOffset = renderX + renderY1 * dstViewWidth;
+                int renderOffset = transposed ? renderY1 + renderX * dstViewHeight : renderX + renderY1 * dstViewWidth;
                 if (RENDER_TEST && srcOpaque) {
                     for (int y = renderY1; y < renderY2; y++) {
                         if (f_y < 0 || f_y >= (ONE << srcSizeBits)) {
@@ -557,22 +1801,12 @@ public class SoftRender3D extends View {
                         } else {
                             dstData[renderOffset] = (toIntFloor(f_y) & 1) == 0 ? 0xff000000 : (srcX & 1) == 0 ? 0xffaaaaaa : 0xffb4b4b4;
                         }
-                        renderOffset += dstViewWidth;
-                        f_y += f_dy;
-                    }
-                } else if (srcOpaque && depth <= 256) {
-                    for (int y = renderY1; y < renderY2; y++) {
-                        dstData[renderOffset] = srcData[srcX + (toIntFloor(f_y) << srcSizeBits)];
-                        renderOffset += dstViewWidth;
-                        f_y += f_dy;
-                    }
-                } else {
-                    for (int y = renderY1; y < renderY2; y++) {
-                        int srcColor = srcData[srcX + (toIntFloor(f_y) << srcSizeBits)];
-                        drawPixel(dstData, renderOffset, srcColor, depth);
-                        renderOffset += dstViewWidth;
+                        renderOffset += dstStride;
                         f_y += f_dy;
                     }
+                } else if (renderY2 > renderY1) {
+                    drawColumnSpan(srcData, srcOffset, f_y, f_dy, dstData, renderOffset, dstStride,
+                            renderY2 - renderY1, srcAlphaType, shadeOffset);
                 }
                 if (!firstPass) {
                     break;
@@ -590,168 +1824,365 @@ public class SoftRender3D extends View {
         return renderY + renderHeight;
     }
 
-    private void drawPixel(int[] dstData, int dstOffset, int srcColor, int depth) {
-        int srcA = srcColor >>> 24;
-        if (srcA == 0xff && depth <= 256) {
-            dstData[dstOffset] = srcColor;
-        } else if (srcA > 0) {
-            int dstColor = dstData[dstOffset];
-            int dstR = (dstColor >> 16) & 0xff;
-            int dstG = (dstColor >> 8) & 0xff;
-            int dstB = (dstColor & 0xff);
-            int srcR = (srcColor >> 16) & 0xff;
-            int srcG = (srcColor >> 8) & 0xff;
-            int srcB = (srcColor & 0xff);
-            if (depth > 256) {
-                srcR = (srcR << 8) / depth;
-                srcG = (srcG << 8) / depth;
-                srcB = (srcB << 8) / depth;
-            }
-            int oneMinusSrcA = 0xff - srcA;
-
-            // For pre-multiplied color
-//          dstR = srcR + ((dstR * oneMinusSrcA) >> 8);
-//          dstG = srcG + ((dstG * oneMinusSrcA) >> 8);
-//          dstB = srcB + ((dstB * oneMinusSrcA) >> 8);
-
-            dstR = (srcA * srcR + dstR * oneMinusSrcA) >> 8;
-            dstG = (srcA * srcG + dstG * oneMinusSrcA) >> 8;
-            dstB = (srcA * srcB + dstB * oneMinusSrcA) >> 8;
-
-            dstData[dstOffset] = 0xff000000 | (dstR << 16) | (dstG << 8) | dstB;
+    /**
+     * Draws a span of a texture column with the span kernel for the texture's alpha type.
+     */
+    private void drawColumnSpan(int[] srcData, int srcOffset, int f_y, int f_dy,
+                                int[] dstData, int dstOffset, int dstStride, int length,
+                                int srcAlphaType, int shadeOffset) {
+        if (srcAlphaType == TextureAtlas.ALPHA_OPAQUE && shadeOffset < 0) {
+            SpanKernels.copyColumn(srcData, srcOffset, f_y, f_dy, dstData, dstOffset, dstStride, length);
+        } else if (srcAlphaType == TextureAtlas.ALPHA_OPAQUE) {
+            SpanKernels.copyColumnShaded(srcData, srcOffset, f_y, f_dy, dstData, dstOffset, dstStride,
+                    length, shadeTable, shadeOffset);
+        } else if (srcAlphaType == TextureAtlas.ALPHA_KEYED) {
+            SpanKernels.keyColumn(srcData, srcOffset, f_y, f_dy, dstData, dstOffset, dstStride,
+                    length, shadeTable, shadeOffset);
+        } else {
+            SpanKernels.blendColumn(srcData, srcOffset, f_y, f_dy, dstData, dstOffset, dstStride,
+                    length, shadeTable, shadeOffset);
         }
     }
 
-    private List<Entity> getVisibleEntities() {
+    /**
+     * Finds the sprites in the visible floors, and sorts them from back to front. Sprites at the
+     * same distance are kept in the order they were found.
+     *
+     * Sprites barely move between frames, so the insertion sort starts from the previous frame's
+     * order, where it has little to do. A sprite is matched to the sprite at the same position in
+     * the same tile of the previous frame; sprites without a match go first. The seed only
+     * affects the time to sort, not the result.
+     */
+    private void findVisibleSprites() {
         float cameraX = toFloat(f_cameraX);
         float cameraY = toFloat(f_cameraY);
         float cosAngle = (float) Math.cos(angleToRadians(cameraAngle));
         float sinAngle = (float) Math.sin(angleToRadians(cameraAngle));
+        int[] tileSpriteStart = frame.getTileSpriteStart();
+        float[] spriteX = frame.getSpriteX();
+        float[] spriteY = frame.getSpriteY();
+        float[] spriteDepthOffsets = frame.getSpriteDepthOffsets();
+
+        int numSprites = frame.getNumSprites();
+        if (spriteDistances.length < numSprites) {
+            spriteDistances = new float[Math.max(numSprites, spriteDistances.length * 2)];
+            visibleSprites = new int[spriteDistances.length];
+        }
+        if (spriteFoundOrder.length < numSprites) {
+            spriteFoundOrder = new int[Math.max(numSprites, spriteFoundOrder.length * 2)];
+        }
+
+        int[] tempSpriteRanks = previousSpriteRanks;
+        previousSpriteRanks = spriteRanks;
+        spriteRanks = tempSpriteRanks;
+        int[] previousTileSpriteStart = null;
+        if (rankedFrame != null && (rankedFrame == frame || rankedFrame == spareFrame) &&
+                rankedFrame.getMapWidth() == frame.getMapWidth() &&
+                rankedFrame.getMapHeight() == frame.getMapHeight()) {
+            previousTileSpriteStart = rankedFrame.getTileSpriteStart();
+            Arrays.fill(seededSprites, 0, numRankedVisibleSprites, -1);
+        }
 
-        // Get visible objects
-        List<Entity> visibleEntities = new ArrayList<>();
-        for (Tile tile : visibleFloors) {
-            tile.renderVisible = 0;
-            List<Entity> entities = tile.getEntities();
-            if (entities != null) {
-                for (Entity entity : entities) {
-                    if (!(entity instanceof Player)) {
-                        float dx = entity.getX() - cameraX;
-                        float dy = entity.getY() - cameraY;
-                        entity.setDistanceFromCamera(dx * cosAngle - dy * sinAngle);
-                        visibleEntities.add(entity);
+        // Unmatched sprites are added to visibleSprites, and matched sprites to seededSprites at
+        // their previous position.
+        numVisibleSprites = 0;
+        int numUnmatchedSprites = 0;
+        for (int i = 0; i < numVisibleFloors; i++) {
+            int tileIndex = visibleFloors[i];
+            visibleFloorMarks[tileIndex] = 0;
+            for (int sprite = tileSpriteStart[tileIndex]; sprite < tileSpriteStart[tileIndex + 1]; sprite++) {
+                float dx = spriteX[sprite] - cameraX;
+                float dy = spriteY[sprite] - cameraY;
+                float dist = dx * cosAngle - dy * sinAngle;
+                spriteDistances[sprite] = dist - spriteDepthOffsets[sprite];
+                spriteFoundOrder[sprite] = numVisibleSprites++;
+
+                int rank = -1;
+                if (previousTileSpriteStart != null) {
+                    int previousSprite = previousTileSpriteStart[tileIndex] + sprite - tileSpriteStart[tileIndex];
+                    if (previousSprite < previousTileSpriteStart[tileIndex + 1] &&
+                            previousSprite < numRankedSprites) {
+                        rank = previousSpriteRanks[previousSprite];
                     }
                 }
+                if (rank >= 0) {
+                    seededSprites[rank] = sprite;
+                } else {
+                    visibleSprites[numUnmatchedSprites++] = sprite;
+                }
+            }
+        }
+        if (numUnmatchedSprites < numVisibleSprites) {
+            int n = numUnmatchedSprites;
+            for (int rank = 0; rank < numRankedVisibleSprites; rank++) {
+                int sprite = seededSprites[rank];
+                if (sprite >= 0) {
+                    visibleSprites[n++] = sprite;
+                }
             }
         }
-        visibleFloors.clear();
 
-        // Sort visible entities from back to front
-        Collections.sort(visibleEntities);
+        // Sort from back to front
+        for (int i = 1; i < numVisibleSprites; i++) {
+            int sprite = visibleSprites[i];
+            float dist = spriteDistances[sprite];
+            int order = spriteFoundOrder[sprite];
+            int j = i - 1;
+            while (j >= 0) {
+                int otherSprite = visibleSprites[j];
+                float otherDist = spriteDistances[otherSprite];
+                if (otherDist < dist || (otherDist == dist && spriteFoundOrder[otherSprite] > order)) {
+                    visibleSprites[j + 1] = otherSprite;
+                    j--;
+                } else {
+                    break;
+                }
+            }
+            visibleSprites[j + 1] = sprite;
+        }
 
-        return visibleEntities;
+        // Rank this frame's sprites, to seed the next sort
+        if (spriteRanks.length < numSprites) {
+            spriteRanks = new int[Math.max(numSprites, spriteRanks.length * 2)];
+        }
+        if (seededSprites.length < numVisibleSprites) {
+            seededSprites = new int[Math.max(numVisibleSprites, seededSprites.length * 2)];
+        }
+        Arrays.fill(spriteRanks, 0, numSprites, -1);
+        for (int i = 0; i < numVisibleSprites; i++) {
+            spriteRanks[visibleSprites[i]] = i;
+        }
+        rankedFrame = frame;
+        numRankedSprites = numSprites;
+        numRankedVisibleSprites = numVisibleSprites;
     }
 
     /**
      * For each pixel across, cast a ray from the camera location, looking for x- and y-intersections.
+     * The columns are split into strips that may be cast concurrently.
+     *
+     * This and the other stages of drawFrame() are package-private so that they can be
+     * benchmarked individually.
      */
-    private List<Entity> raycast() {
-        visibleFloors.clear();
-        addVisibleFloor(toIntFloor(f_cameraX), toIntFloor(f_cameraY));
+    void raycast(int stripStage) {
         int viewWidth = dstBuffer.getWidth();
-        for (int x = 0; x < viewWidth; x++) {
-            Ray ray = rays[x];
-            ray.reset();
-            int angle = (rayAngleTable[x] + cameraAngle) & NUM_DEGREES_MASK;
+        int numStrips = renderWorkers.getNumJobs(viewWidth, MIN_RAYCAST_STRIP_WIDTH);
+        if (renderStrips.length < numStrips) {
+            RenderStrip[] newStrips = Arrays.copyOf(renderStrips, numStrips);
+            for (int i = renderStrips.length; i < numStrips; i++) {
+                newStrips[i] = new RenderStrip();
+            }
+            renderStrips = newStrips;
+        }
+        for (int i = 0; i < numStrips; i++) {
+            renderStrips[i].stage = stripStage;
+            renderStrips[i].startX = viewWidth * i / numStrips;
+            renderStrips[i].endX = viewWidth * (i + 1) / numStrips;
+        }
+        numRenderStrips = numStrips;
 
-            // Check for x intersections
-            if (angle > ANGLE_0 && angle < ANGLE_180) {
-                int f_rayY = floor(f_cameraY);
-                int f_rayX = f_cameraX + mul(f_cameraY - f_rayY, f_cotTable[angle]);
-                raycast(ray, -1, f_rayX, f_rayY, f_cotTable[angle], -ONE, false);
-            } else if (angle > ANGLE_180 && angle < ANGLE_360) {
-                int f_rayY = ONE + floor(f_cameraY);
-                int f_rayX = f_cameraX + mul(f_cameraY - f_rayY, f_cotTable[angle]);
-                raycast(ray, 1, f_rayX, f_rayY, -f_cotTable[angle], ONE, false);
+        renderWorkers.invokeAll(renderStrips, numStrips);
+
+        // Merge visible floors in strip order, so the result is the same as a single strip.
+        int numTiles = frame.getMapWidth() * frame.getMapHeight();
+        if (visibleFloorMarks.length != numTiles) {
+            visibleFloorMarks = new byte[numTiles];
+        }
+        numVisibleFloors = 0;
+        for (int i = 0; i < numStrips; i++) {
+            VisibleFloorSet visibleFloorSet = renderStrips[i].visibleFloorSet;
+            for (int j = 0; j < visibleFloorSet.size; j++) {
+                int tileIndex = visibleFloorSet.tileIndices[j];
+                if (visibleFloorMarks[tileIndex] == 0) {
+                    visibleFloorMarks[tileIndex] = 1;
+                    if (numVisibleFloors == visibleFloors.length) {
+                        visibleFloors = Arrays.copyOf(visibleFloors, numVisibleFloors * 2);
+                    }
+                    visibleFloors[numVisibleFloors++] = tileIndex;
+                }
             }
+        }
+
+        findOcclusionBlocks();
+        findVisibleSprites();
+    }
+
+    private void findOcclusionBlocks() {
+        int viewWidth = dstBuffer.getWidth();
+        Arrays.fill(occlusionBlockMaxDist, Integer.MIN_VALUE);
+        for (int x = 0; x < viewWidth; x++) {
+            int block = x >> OCCLUSION_BLOCK_BITS;
+            occlusionBlockMaxDist[block] = Math.max(occlusionBlockMaxDist[block], rays[viewWidth - x - 1].f_dist);
+        }
+    }
+
+    private void raycast(Ray ray, int x, VisibleFloorSet visibleFloorSet,
+                         GridWalk xIntersections, GridWalk yIntersections) {
+        ray.reset();
+        floorDrawY[x] = 0;
+        int angle = (rayAngleTable[x] + cameraAngle) & NUM_DEGREES_MASK;
+
+        // Check for x intersections
+        xIntersections.stop();
+        if (angle > ANGLE_0 && angle < ANGLE_180) {
+            int f_rayY = floor(f_cameraY);
+            int f_rayX = f_cameraX + mul(f_cameraY - f_rayY, f_cotTable[angle]);
+            xIntersections.start(-1, f_rayX, f_rayY, f_cotTable[angle], -ONE, false);
+        } else if (angle > ANGLE_180 && angle < ANGLE_360) {
+            int f_rayY = ONE + floor(f_cameraY);
+            int f_rayX = f_cameraX + mul(f_cameraY - f_rayY, f_cotTable[angle]);
+            xIntersections.start(1, f_rayX, f_rayY, -f_cotTable[angle], ONE, false);
+        }
 
-            // Check for y intersections
-            if (angle > ANGLE_90 && angle < ANGLE_270) {
-                int f_rayX = floor(f_cameraX);
-                int f_rayY = f_cameraY + mul(f_cameraX - f_rayX, f_tanTable[angle]);
-                raycast(ray, -1, f_rayX, f_rayY, -ONE, f_tanTable[angle], true);
-            } else if (angle < ANGLE_90 || angle > ANGLE_270) {
-                int f_rayX = ONE + floor(f_cameraX);
-                int f_rayY = f_cameraY + mul(f_cameraX - f_rayX, f_tanTable[angle]);
-                raycast(ray, 1, f_rayX, f_rayY, ONE, -f_tanTable[angle], true);
+        // Check for y intersections
+        yIntersections.stop();
+        if (angle > ANGLE_90 && angle < ANGLE_270) {
+            int f_rayX = floor(f_cameraX);
+            int f_rayY = f_cameraY + mul(f_cameraX - f_rayX, f_tanTable[angle]);
+            yIntersections.start(-1, f_rayX, f_rayY, -ONE, f_tanTable[angle], true);
+        } else if (angle < ANGLE_90 || angle > ANGLE_270) {
+            int f_rayX = ONE + floor(f_cameraX);
+            int f_rayY = f_cameraY + mul(f_cameraX - f_rayX, f_tanTable[angle]);
+            yIntersections.start(1, f_rayX, f_rayY, ONE, -f_tanTable[angle], true);
+        }
+
+        // Walk both sets of intersections together, nearest first, so each tile is visited
+        // once. A hit is never nearer than its intersection, so once one walk hits, the other
+        // only continues while its intersections are nearer than the hit. On a tie, the
+        // x-intersection wins.
+        while (true) {
+            boolean xCanHit = xIntersections.active &&
+                    (!yIntersections.found || xIntersections.f_dist <= yIntersections.f_dist);
+            boolean yCanHit = yIntersections.active &&
+                    (!xIntersections.found || yIntersections.f_dist < xIntersections.f_dist);
+            if (xCanHit && (!yCanHit || xIntersections.f_dist <= yIntersections.f_dist)) {
+                xIntersections.step(visibleFloorSet);
+            } else if (yCanHit) {
+                yIntersections.step(visibleFloorSet);
+            } else {
+                break;
             }
         }
 
-        return getVisibleEntities();
+        if (xIntersections.found) {
+            ray.f_dist = xIntersections.f_dist;
+            ray.sliver = xIntersections.sliver;
+            ray.textureId = xIntersections.textureId;
+        }
+        if (yIntersections.found && yIntersections.f_dist < ray.f_dist) {
+            ray.f_dist = yIntersections.f_dist;
+            ray.sliver = yIntersections.sliver;
+            ray.textureId = yIntersections.textureId;
+        }
     }
 
     /**
-     * Cast a ray looking for an x- or y-intersection.
+     * Walks a ray through the grid, looking for an x- or y-intersection with a wall. While the
+     * walk is active, f_dist is the distance to the next intersection to check. After a hit,
+     * f_dist is the distance to the hit.
      */
-    private void raycast(Ray ray, int dir, int f_rayX, int f_rayY, int f_rayDX, int f_rayDY, boolean checkingY) {
-        final int windowMask = checkingY ? WINDOW_NORTH_SOUTH : WINDOW_WEST_EAST;
-        int tileX;
-        int tileY;
-        int sliver = 0;
-        SoftTexture texture = null;
-        boolean found = false;
-
-        if (checkingY) {
-            if (dir == -1) {
-                tileX = toIntFloor(f_rayX) - 1;
+    private class GridWalk {
+
+        private boolean active;
+        private boolean found;
+        private int f_dist;
+        private int sliver;
+        private int textureId;
+
+        private boolean checkingY;
+        private int dir;
+        private int f_rayX;
+        private int f_rayY;
+        private int f_rayDX;
+        private int f_rayDY;
+        private int tileX;
+        private int tileY;
+
+        public void start(int dir, int f_rayX, int f_rayY, int f_rayDX, int f_rayDY, boolean checkingY) {
+            this.dir = dir;
+            this.f_rayX = f_rayX;
+            this.f_rayY = f_rayY;
+            this.f_rayDX = f_rayDX;
+            this.f_rayDY = f_rayDY;
+            this.checkingY = checkingY;
+            if (checkingY) {
+                if (dir == -1) {
+                    tileX = toIntFloor(f_rayX) - 1;
+                } else {
+                    tileX = toIntFloor(f_rayX);
+                }
+                tileY = toIntFloor(f_rayY);
             } else {
                 tileX = toIntFloor(f_rayX);
+                if (dir == -1) {
+                    tileY = toIntFloor(f_rayY) - 1;
+                } else {
+                    tileY = toIntFloor(f_rayY);
+                }
             }
-            tileY = toIntFloor(f_rayY);
-        } else {
-            tileX = toIntFloor(f_rayX);
-            if (dir == -1) {
-                tileY = toIntFloor(f_rayY) - 1;
-            } else {
-                tileY = toIntFloor(f_rayY);
-            }
+            active = true;
+            found = false;
+            textureId = -1;
+            f_dist = getDistance();
         }
 
-        while (true) {
-            Tile tile = map.getTileAt(tileX, tileY);
-            if (tile == null) {
-                break;
+        public void stop() {
+            active = false;
+            found = false;
+        }
+
+        private int getDistance() {
+            long f_cosCameraAngle = f_cosTable[cameraAngle];
+            long f_sinCameraAngle = f_sinTable[cameraAngle];
+            return (int) (((f_rayX - f_cameraX) * f_cosCameraAngle - (f_rayY - f_cameraY) * f_sinCameraAngle) >> FRACTION_BITS);
+        }
+
+        /**
+         * Checks the tile at the next intersection, and either stops at a hit, stops at the edge
+         * of the map, or moves to the following intersection.
+         */
+        public void step(VisibleFloorSet visibleFloorSet) {
+            int tileIndex = frame.getTileIndex(tileX, tileY);
+            if (tileIndex < 0) {
+                active = false;
+                return;
             }
 
-            if (tile.type == Tile.TYPE_NOTHING) {
-                // Skip it
-            } else if (tile.type == Tile.TYPE_WALL || tile.type == Tile.TYPE_EXIT || tile.type == Tile.TYPE_GENERATOR) {
+            final int windowMask = checkingY ? WINDOW_NORTH_SOUTH : WINDOW_WEST_EAST;
+            int[] tileTypes = frame.getTileTypes();
+            int tileType = tileTypes[tileIndex];
+            if (tileType == Tile.TYPE_NOTHING) {
+                if (frame.isSkippableBlockAt(tileX, tileY)) {
+                    advance(getNumStepsInBlock());
+                    return;
+                }
+            } else if (tileType == Tile.TYPE_WALL || tileType == Tile.TYPE_EXIT || tileType == Tile.TYPE_GENERATOR) {
                 if (checkingY) {
                     sliver = fracPart(f_rayY);
                 } else {
                     sliver = fracPart(f_rayX);
                 }
 
-                texture = tile.getTexture();
+                textureId = frame.getTileTextureIds()[tileIndex];
 
                 if (checkingY) {
-                    Tile sideTile = map.getTileAt(tileX - dir, tileY);
-                    if (sideTile != null && sideTile.type == Tile.TYPE_DOOR) {
-                        texture = doorSideTexture;
+                    int sideTileIndex = frame.getTileIndex(tileX - dir, tileY);
+                    if (sideTileIndex >= 0 && tileTypes[sideTileIndex] == Tile.TYPE_DOOR) {
+                        textureId = doorSideTextureId;
                     }
                 } else {
-                    Tile sideTile = map.getTileAt(tileX, tileY - dir);
-                    if (sideTile != null && sideTile.type == Tile.TYPE_DOOR) {
-                        texture = doorSideTexture;
+                    int sideTileIndex = frame.getTileIndex(tileX, tileY - dir);
+                    if (sideTileIndex >= 0 && tileTypes[sideTileIndex] == Tile.TYPE_DOOR) {
+                        textureId = doorSideTextureId;
                     }
                 }
 
-                found = true;
-                break;
-            } else if (tile.type == Tile.TYPE_DOOR) {
+                hit();
+                return;
+            } else if (tileType == Tile.TYPE_DOOR) {
                 int f_extraX = f_rayDX / 2;
                 int f_extraY = f_rayDY / 2;
-                int s = tile.renderState;
+                int s = frame.getTileRenderStates()[tileIndex];
                 if (checkingY) {
                     sliver = fracPart(f_rayY) + f_extraY;
                 } else {
@@ -768,11 +2199,11 @@ public class SoftRender3D extends View {
                     sliver -= s;
                     f_rayX += f_extraX;
                     f_rayY += f_extraY;
-                    texture = doorTextures[tile.getDoorType()];
-                    found = true;
-                    break;
+                    textureId = doorTextureIds[frame.getTileSubtypes()[tileIndex]];
+                    hit();
+                    return;
                 }
-            } else if (tile.type == Tile.TYPE_WINDOW && (tile.subtype & windowMask) != 0) {
+            } else if (tileType == Tile.TYPE_WINDOW && (frame.getTileSubtypes()[tileIndex] & windowMask) != 0) {
                 int f_extraX = f_rayDX / 2;
                 int f_extraY = f_rayDY / 2;
                 if (checkingY) {
@@ -785,13 +2216,14 @@ public class SoftRender3D extends View {
                 if ((((sliver + d / 2) / d) & 1) == 0) {
                     f_rayX += f_extraX;
                     f_rayY += f_extraY;
-                    found = true;
-                    texture = windowTexture;
-                    break;
+                    textureId = windowTextureId;
+                    hit();
+                    return;
                 }
-            } else if (tile.type == Tile.TYPE_MOVABLE_WALL) {
-                int f_extraX = mul(tile.renderState, f_rayDX);
-                int f_extraY = mul(tile.renderState, f_rayDY);
+            } else if (tileType == Tile.TYPE_MOVABLE_WALL) {
+                int renderState = frame.getTileRenderStates()[tileIndex];
+                int f_extraX = mul(renderState, f_rayDX);
+                int f_extraY = mul(renderState, f_rayDY);
 
                 boolean visible;
                 if (checkingY) {
@@ -809,60 +2241,62 @@ public class SoftRender3D extends View {
 
                     f_rayX += f_extraX;
                     f_rayY += f_extraY;
-                    texture = tile.getTexture();
-                    found = true;
-                    break;
+                    textureId = frame.getTileTextureIds()[tileIndex];
+                    hit();
+                    return;
                 }
             }
 
-            addVisibleFloor(tileX, tileY);
+            visibleFloorSet.add(tileX, tileY);
+            advance(1);
+        }
 
-            f_rayX += f_rayDX;
-            f_rayY += f_rayDY;
+        private void advance(int numSteps) {
+            f_rayX += numSteps * f_rayDX;
+            f_rayY += numSteps * f_rayDY;
             if (checkingY) {
-                tileX += dir;
+                tileX += numSteps * dir;
                 tileY = toIntFloor(f_rayY);
             } else {
                 tileX = toIntFloor(f_rayX);
-                tileY += dir;
+                tileY += numSteps * dir;
             }
+            f_dist = getDistance();
         }
 
-        if (found) {
-            long f_cosCameraAngle = f_cosTable[cameraAngle];
-            long f_sinCameraAngle = f_sinTable[cameraAngle];
-
-            int f_dist = (int) (((f_rayX - f_cameraX) * f_cosCameraAngle - (f_rayY - f_cameraY) * f_sinCameraAngle) >> FRACTION_BITS);
-
-            if (f_dist < ray.f_dist) {
-                ray.f_dist = f_dist;
-                ray.sliver = sliver;
-                ray.texture = texture;
+        /**
+         * Gets the number of intersections, starting with the current one, before the walk leaves
+         * the current block. The tiles in a skippable block don't need to be checked or marked as
+         * visible, so the walk can move past all of them at once.
+         */
+        private int getNumStepsInBlock() {
+            int blockX = tileX & ~(Map.BLOCK_SIZE - 1);
+            int blockY = tileY & ~(Map.BLOCK_SIZE - 1);
+            if (checkingY) {
+                int numSteps = dir > 0 ? blockX + Map.BLOCK_SIZE - tileX : tileX - blockX + 1;
+                return Math.min(numSteps, getNumStepsInBlock(f_rayY, f_rayDY, blockY));
+            } else {
+                int numSteps = dir > 0 ? blockY + Map.BLOCK_SIZE - tileY : tileY - blockY + 1;
+                return Math.min(numSteps, getNumStepsInBlock(f_rayX, f_rayDX, blockX));
             }
         }
-    }
-
-    private void addVisibleFloor(int tileX, int tileY) {
-        Tile centerTile = map.getTileAt(tileX, tileY);
 
-        // If this tile has already been added as a center tile, do nothing.
-        if (centerTile.renderVisible == 2) {
-            return;
-        }
-
-        // Mark eight surrounding tiles as visible
-        for (int x = tileX - 1; x <= tileX + 1; x++) {
-            for (int y = tileY - 1; y <= tileY + 1; y++) {
-                Tile tile = map.getTileAt(x, y);
-                if (tile != null && tile.renderVisible == 0) {
-                    tile.renderVisible = 1;
-
-                    visibleFloors.add(tile);
-                }
+        private int getNumStepsInBlock(int f_position, int f_delta, int blockStart) {
+            long f_blockStart = (long) blockStart << FRACTION_BITS;
+            long f_blockEnd = f_blockStart + (Map.BLOCK_SIZE << FRACTION_BITS);
+            if (f_delta > 0) {
+                return (int) ((f_blockEnd - f_position + f_delta - 1) / f_delta);
+            } else if (f_delta < 0) {
+                return (int) ((f_position - f_blockStart) / -(long) f_delta) + 1;
+            } else {
+                return Map.BLOCK_SIZE;
             }
         }
 
-        // Mark this tile as a center tile
-        centerTile.renderVisible = 2;
+        private void hit() {
+            active = false;
+            found = true;
+            f_dist = getDistance();
+        }
     }
 }
@@ -70,7 +70,10 @@ public class SoftTexture {
     private final int height;
     private final int sizeBits;
     private final int[] data;
+    private volatile int[] columnData;
     private SoftTexture halfSizeTexture; // For mip-mapping
+    private TextureAtlas atlas; // The atlas this texture was most recently added to
+    private int atlasId = -1;
 
     public SoftTexture(int width, int height) {
         this.width = width;
@@ -110,6 +113,19 @@ public class SoftTexture {
         this.halfSizeTexture = halfSizeTexture;
     }
 
+    TextureAtlas getAtlas() {
+        return atlas;
+    }
+
+    int getAtlasId() {
+        return atlasId;
+    }
+
+    void setAtlas(TextureAtlas atlas, int atlasId) {
+        this.atlas = atlas;
+        this.atlasId = atlasId;
+    }
+
     public int getWidth() {
         return width;
     }
@@ -130,6 +146,26 @@ public class SoftTexture {
         return data;
     }
 
+    /**
+     * Gets a copy of the data stored column-major, so that the pixel at (x, y) is at index
+     * x * height + y. Drawing a vertical sliver of the texture reads the column sequentially.
+     * The copy is created on first use, so the texture must not be modified after that.
+     */
+    public int[] getColumnData() {
+        int[] columns = columnData;
+        if (columns == null) {
+            columns = new int[data.length];
+            int offset = 0;
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    columns[offset++] = data[x + y * width];
+                }
+            }
+            columnData = columns;
+        }
+        return columns;
+    }
+
     public BufferedImage getBufferedImageView() {
         DirectColorModel colorModel = new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
         SampleModel sampleModel = new SinglePixelPackedSampleModel(
@@ -204,6 +240,137 @@ public class SoftTexture {
         return true;
     }
 
+    // Size of the square blocks copied by drawTransposed(). 16 ints is one 64-byte cache line.
+    private static final int TRANSPOSE_BLOCK_SIZE = 16;
+
+    /**
+     * Draws the transpose of the specified texture (source) onto a region of this texture (dest),
+     * so that the dest pixel at (x, y) is the source pixel at (y, x). The source width must be
+     * the dest height, and the source height must be the dest width. The copy is done in small
+     * blocks, so reads and writes both stay within a few cache lines.
+     */
+    public void drawTransposed(SoftTexture src, int x1, int x2, int y1, int y2) {
+        int[] srcData = src.data;
+        int srcWidth = src.width;
+        for (int blockX = x1; blockX < x2; blockX += TRANSPOSE_BLOCK_SIZE) {
+            int blockX2 = Math.min(blockX + TRANSPOSE_BLOCK_SIZE, x2);
+            for (int blockY = y1; blockY < y2; blockY += TRANSPOSE_BLOCK_SIZE) {
+                int blockY2 = Math.min(blockY + TRANSPOSE_BLOCK_SIZE, y2);
+                for (int x = blockX; x < blockX2; x++) {
+                    int srcOffset = blockY + x * srcWidth;
+                    int destOffset = x + blockY * width;
+                    for (int y = blockY; y < blockY2; y++) {
+                        data[destOffset] = srcData[srcOffset++];
+                        destOffset += width;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the specified opaque texture (source) scaled to cover this texture (dest), with
+     * nearest-neighbor sampling at the center of each dest pixel, on both axes. Each source row is
+     * scaled once; dest rows that sample the same source row are copied from the row above.
+     */
+    public void drawScaled(SoftTexture src) {
+        int[] srcData = src.data;
+        // srcX = (2 * x + 1) * src.width / (2 * width), stepped as a quotient and remainder
+        int denominator = 2 * width;
+        int stepX = 2 * src.width / denominator;
+        int stepRemainder = 2 * src.width % denominator;
+        int prevSrcY = -1;
+        int destOffset = 0;
+        for (int y = 0; y < height; y++) {
+            int srcY = (int) ((long) (2 * y + 1) * src.height / (2 * height));
+            if (srcY == prevSrcY) {
+                System.arraycopy(data, destOffset - width, data, destOffset, width);
+            } else {
+                int srcOffset = srcY * src.width;
+                int srcX = src.width / denominator;
+                int remainder = src.width % denominator;
+                for (int x = 0; x < width; x++) {
+                    data[destOffset + x] = srcData[srcOffset + srcX];
+                    srcX += stepX;
+                    remainder += stepRemainder;
+                    if (remainder >= denominator) {
+                        remainder -= denominator;
+                        srcX++;
+                    }
+                }
+                prevSrcY = srcY;
+            }
+            destOffset += width;
+        }
+    }
+
+    /**
+     * Draws this texture, scaled with nearest-neighbor sampling, to the rectangle (x, y, width,
+     * height) of a destination RGB pixel array, clipped to the destination. Both axes sample at
+     * the center of each dest pixel. When the width is an integer multiple of this texture's
+     * width, pixels are replicated, which samples the same source pixels.
+     */
+    public void drawScaled(int[] dest, int destWidth, int destHeight, int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int x1 = Math.max(0, x);
+        int y1 = Math.max(0, y);
+        int x2 = Math.min(destWidth, x + width);
+        int y2 = Math.min(destHeight, y + height);
+        if (x1 >= x2 || y1 >= y2) {
+            return;
+        }
+        int rowWidth = x2 - x1;
+        int scale = width / this.width;
+        boolean integerScaleX = scale * this.width == width;
+        // srcX = (2 * destX + 1) * this.width / (2 * width), stepped as a quotient and remainder
+        int denominator = 2 * width;
+        int stepX = 2 * this.width / denominator;
+        int stepRemainder = 2 * this.width % denominator;
+        long firstNumerator = (long) (2 * (x1 - x) + 1) * this.width;
+        int prevSrcY = -1;
+        int destOffset = x1 + y1 * destWidth;
+        for (int destY = y1; destY < y2; destY++) {
+            int srcY = (int) ((long) (2 * (destY - y) + 1) * this.height / (2 * height));
+            if (srcY == prevSrcY) {
+                System.arraycopy(dest, destOffset - destWidth, dest, destOffset, rowWidth);
+            } else if (integerScaleX) {
+                int srcX = (x1 - x) / scale;
+                int srcOffset = srcX + srcY * this.width;
+                int destX = x1;
+                int run = Math.min(x2, x + (srcX + 1) * scale) - x1;
+                int destRowOffset = destOffset;
+                while (destX < x2) {
+                    int color = data[srcOffset++];
+                    int end = destRowOffset + run;
+                    for (int i = destRowOffset; i < end; i++) {
+                        dest[i] = color;
+                    }
+                    destX += run;
+                    destRowOffset = end;
+                    run = Math.min(scale, x2 - destX);
+                }
+                prevSrcY = srcY;
+            } else {
+                int srcOffset = srcY * this.width;
+                int srcX = (int) (firstNumerator / denominator);
+                int remainder = (int) (firstNumerator % denominator);
+                for (int i = 0; i < rowWidth; i++) {
+                    dest[destOffset + i] = data[srcOffset + srcX];
+                    srcX += stepX;
+                    remainder += stepRemainder;
+                    if (remainder >= denominator) {
+                        remainder -= denominator;
+                        srcX++;
+                    }
+                }
+                prevSrcY = srcY;
+            }
+            destOffset += destWidth;
+        }
+    }
+
     /**
      * Draws the specified texture (source) onto this texture (dest).
      */
@@ -251,13 +418,7 @@ public class SoftTexture {
             if (srcOpaque) {
                 System.arraycopy(srcData, srcOffset, destData, destOffset, srcWidth);
             } else {
-                for (int j = 0; j < srcWidth; j++) {
-                    int color = srcData[srcOffset + j];
-
-                    if (color != 0) {
-                        destData[destOffset + j] = color;
-                    }
-                }
+                SpanKernels.keyRow(srcData, srcOffset, destData, destOffset, srcWidth);
             }
 
             srcOffset += src.width;
@@ -13,7 +13,7 @@ public class SoundPlayer3D {
     private static final int MAX_DIST = 24;
 
     public static void play(String audioName, Entity listener, int sourceTileX, int sourceTileY) {
-        AudioBuffer audio = App.getApp().getAudio(audioName);
+        AudioBuffer audio = App.getAppAudio(audioName);
         if (audio != null) {
             audio.play(getVolume(listener, sourceTileX, sourceTileY),
                     getPan(listener, sourceTileX, sourceTileY),
@@ -22,7 +22,7 @@ public class SoundPlayer3D {
     }
 
     public static void play(String audioName, Entity listener, Entity source) {
-        AudioBuffer audio = App.getApp().getAudio(audioName);
+        AudioBuffer audio = App.getAppAudio(audioName);
         if (audio != null) {
             audio.play(getVolume(listener, source),
                     getPan(listener, source),
@@ -0,0 +1,355 @@
+package com.brackeen.scared;
+
+/**
+ * Loops that draw a span of pixels sampled from a texture. There is one loop per kind of source
+ * (opaque, color-keyed, or blended) and per shading, so the choice is made once per span instead
+ * of once per pixel, and each loop body is small and branch-light.
+ *
+ * Column spans step down a column of column-major texture data (walls and sprites), with a
+ * 16.16 fixed-point y. Floor spans step across a square power-of-two texture of row-major data,
+ * with 32.32 fixed-point coordinates. Destinations are stepped by a stride, which may be negative.
+ *
+ * Colors are ARGB. Fully transparent pixels are skipped, fully opaque pixels are copied, and
+ * other pixels are blended with the destination. Shading uses a row of a ShadeTable; a shade
+ * offset of -1 means unshaded.
+ *
+ * When the jdk.incubator.vector module is present, spans with contiguous destinations (floors,
+ * transposed walls and sprites, and rows) use the Vectorized kernels. The texture is still
+ * sampled with a scalar loop, into the destination for opaque spans or into a scratch array
+ * otherwise, and the kernel then shades, keys, or blends several pixels at a time. Column spans
+ * that aren't transposed step by the frame width, so they always use the scalar loops.
+ */
+final class SpanKernels {
+
+    /**
+     * Kernels for spans with contiguous destinations, written with the Vector API. They are
+     * compiled separately, because they need Java 16 or newer and --add-modules
+     * jdk.incubator.vector.
+     */
+    interface Vectorized {
+
+        /**
+         * Shades opaque colors in place, like shadeOpaque() with the row of a depth greater than
+         * ShadeTable.MIN_DEPTH.
+         */
+        void shadeOpaque(int[] data, int offset, int length, int depth);
+
+        /**
+         * Draws colors with any alpha over dst, like the scalar blend loops: fully transparent
+         * colors are skipped, opaque colors are copied, and others are blended. Colors are shaded
+         * with the row of the depth, or not shaded if the depth is 0.
+         */
+        void blend(int[] src, int srcOffset, int[] dst, int dstOffset, int length, int depth);
+
+        /**
+         * Same as SpanKernels.keyRow().
+         */
+        void keyRow(int[] src, int srcOffset, int[] dst, int dstOffset, int length);
+    }
+
+    private static final int FRACTION_BITS = SoftRender3D.FRACTION_BITS;
+
+    // The Vector API kernels, or null if they can't be loaded
+    private static final Vectorized VECTORIZED = loadVectorized();
+
+    // Sampled colors of a span, for the Vectorized blend kernel. Spans are drawn on several
+    // render threads.
+    private static final ThreadLocal<int[]> SCRATCH = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1024];
+        }
+    };
+
+    private SpanKernels() {
+    }
+
+    private static Vectorized loadVectorized() {
+        try {
+            Class<?> c = Class.forName("com.brackeen.scared.VectorSpanKernels");
+            return (Vectorized) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException ex) {
+            // Not built, or the jdk.incubator.vector module isn't present
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the Vector API kernels are used.
+     */
+    static boolean isVectorized() {
+        return VECTORIZED != null;
+    }
+
+    // Column spans
+
+    /**
+     * Copies an opaque column span.
+     */
+    static void copyColumn(int[] src, int srcOffset, int f_y, int f_dy,
+                           int[] dst, int dstOffset, int dstStride, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset] = src[srcOffset + (f_y >> FRACTION_BITS)];
+            dstOffset += dstStride;
+            f_y += f_dy;
+        }
+    }
+
+    /**
+     * Copies an opaque column span, shaded.
+     */
+    static void copyColumnShaded(int[] src, int srcOffset, int f_y, int f_dy,
+                                 int[] dst, int dstOffset, int dstStride, int length,
+                                 ShadeTable shadeTable, int shadeOffset) {
+        if (VECTORIZED != null && (dstStride == 1 || dstStride == -1)) {
+            copyColumn(src, srcOffset, f_y, f_dy, dst, dstOffset, dstStride, length);
+            shadeContiguous(dst, dstOffset, dstStride, length, shadeOffset);
+            return;
+        }
+        byte[] opaqueShades = shadeTable.getOpaqueShades();
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset] = shadeOpaque(opaqueShades, shadeOffset, src[srcOffset + (f_y >> FRACTION_BITS)]);
+            dstOffset += dstStride;
+            f_y += f_dy;
+        }
+    }
+
+    /**
+     * Copies a column span where every pixel is either fully transparent or fully opaque.
+     */
+    static void keyColumn(int[] src, int srcOffset, int f_y, int f_dy,
+                          int[] dst, int dstOffset, int dstStride, int length,
+                          ShadeTable shadeTable, int shadeOffset) {
+        if (VECTORIZED != null && (dstStride == 1 || dstStride == -1)) {
+            // Keyed colors blend the same as they key
+            int[] colors = sampleColumn(src, srcOffset, f_y, f_dy, dstStride, length);
+            blendContiguous(colors, dst, dstOffset, dstStride, length, shadeOffset);
+            return;
+        }
+        if (shadeOffset < 0) {
+            for (int i = 0; i < length; i++) {
+                int srcColor = src[srcOffset + (f_y >> FRACTION_BITS)];
+                if (srcColor >>> 24 != 0) {
+                    dst[dstOffset] = srcColor;
+                }
+                dstOffset += dstStride;
+                f_y += f_dy;
+            }
+        } else {
+            byte[] opaqueShades = shadeTable.getOpaqueShades();
+            for (int i = 0; i < length; i++) {
+                int srcColor = src[srcOffset + (f_y >> FRACTION_BITS)];
+                if (srcColor >>> 24 != 0) {
+                    dst[dstOffset] = shadeOpaque(opaqueShades, shadeOffset, srcColor);
+                }
+                dstOffset += dstStride;
+                f_y += f_dy;
+            }
+        }
+    }
+
+    /**
+     * Draws a column span with any alpha.
+     */
+    static void blendColumn(int[] src, int srcOffset, int f_y, int f_dy,
+                            int[] dst, int dstOffset, int dstStride, int length,
+                            ShadeTable shadeTable, int shadeOffset) {
+        if (VECTORIZED != null && (dstStride == 1 || dstStride == -1)) {
+            int[] colors = sampleColumn(src, srcOffset, f_y, f_dy, dstStride, length);
+            blendContiguous(colors, dst, dstOffset, dstStride, length, shadeOffset);
+            return;
+        }
+        byte[] shades = shadeTable.getShades();
+        byte[] opaqueShades = shadeTable.getOpaqueShades();
+        for (int i = 0; i < length; i++) {
+            int srcColor = src[srcOffset + (f_y >> FRACTION_BITS)];
+            int srcA = srcColor >>> 24;
+            if (srcA == 0xff) {
+                dst[dstOffset] = shadeOffset < 0 ? srcColor : shadeOpaque(opaqueShades, shadeOffset, srcColor);
+            } else if (srcA != 0) {
+                dst[dstOffset] = blend(dst[dstOffset], srcColor, shades, shadeOffset);
+            }
+            dstOffset += dstStride;
+            f_y += f_dy;
+        }
+    }
+
+    // Floor spans
+
+    /**
+     * Copies an opaque floor span, shaded if the shade offset is not -1.
+     */
+    static void copyFloor(int[] src, int srcOffset, int sizeBits, long t_x, long t_y, long dtx, long dty,
+                          int[] dst, int dstOffset, int dstStride, int length,
+                          ShadeTable shadeTable, int shadeOffset) {
+        int shift = 32 - sizeBits;
+        int mask = (1 << sizeBits) - 1;
+        if (shadeOffset < 0 || (VECTORIZED != null && (dstStride == 1 || dstStride == -1))) {
+            int startOffset = dstOffset;
+            for (int i = 0; i < length; i++) {
+                int u = (int) (t_x >> shift) & mask;
+                int v = (int) (t_y >> shift) & mask;
+                dst[dstOffset] = src[srcOffset + u + (v << sizeBits)];
+                t_x += dtx;
+                t_y += dty;
+                dstOffset += dstStride;
+            }
+            if (shadeOffset >= 0) {
+                shadeContiguous(dst, startOffset, dstStride, length, shadeOffset);
+            }
+        } else {
+            byte[] opaqueShades = shadeTable.getOpaqueShades();
+            for (int i = 0; i < length; i++) {
+                int u = (int) (t_x >> shift) & mask;
+                int v = (int) (t_y >> shift) & mask;
+                dst[dstOffset] = shadeOpaque(opaqueShades, shadeOffset, src[srcOffset + u + (v << sizeBits)]);
+                t_x += dtx;
+                t_y += dty;
+                dstOffset += dstStride;
+            }
+        }
+    }
+
+    /**
+     * Draws a floor span with any alpha.
+     */
+    static void blendFloor(int[] src, int srcOffset, int sizeBits, long t_x, long t_y, long dtx, long dty,
+                           int[] dst, int dstOffset, int dstStride, int length,
+                           ShadeTable shadeTable, int shadeOffset) {
+        int shift = 32 - sizeBits;
+        int mask = (1 << sizeBits) - 1;
+        if (VECTORIZED != null && (dstStride == 1 || dstStride == -1)) {
+            int[] colors = getScratch(length);
+            int colorOffset = dstStride > 0 ? 0 : length - 1;
+            for (int i = 0; i < length; i++) {
+                int u = (int) (t_x >> shift) & mask;
+                int v = (int) (t_y >> shift) & mask;
+                colors[colorOffset] = src[srcOffset + u + (v << sizeBits)];
+                t_x += dtx;
+                t_y += dty;
+                colorOffset += dstStride;
+            }
+            blendContiguous(colors, dst, dstOffset, dstStride, length, shadeOffset);
+            return;
+        }
+        byte[] shades = shadeTable.getShades();
+        byte[] opaqueShades = shadeTable.getOpaqueShades();
+        for (int i = 0; i < length; i++) {
+            int u = (int) (t_x >> shift) & mask;
+            int v = (int) (t_y >> shift) & mask;
+            int srcColor = src[srcOffset + u + (v << sizeBits)];
+            int srcA = srcColor >>> 24;
+            if (srcA == 0xff) {
+                dst[dstOffset] = shadeOffset < 0 ? srcColor : shadeOpaque(opaqueShades, shadeOffset, srcColor);
+            } else if (srcA != 0) {
+                dst[dstOffset] = blend(dst[dstOffset], srcColor, shades, shadeOffset);
+            }
+            t_x += dtx;
+            t_y += dty;
+            dstOffset += dstStride;
+        }
+    }
+
+    // Row spans
+
+    /**
+     * Copies a row span, skipping pixels that are 0.
+     */
+    static void keyRow(int[] src, int srcOffset, int[] dst, int dstOffset, int length) {
+        if (VECTORIZED != null) {
+            VECTORIZED.keyRow(src, srcOffset, dst, dstOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            int color = src[srcOffset + i];
+            if (color != 0) {
+                dst[dstOffset + i] = color;
+            }
+        }
+    }
+
+    private static int[] getScratch(int length) {
+        int[] scratch = SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new int[Math.max(length, scratch.length * 2)];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    /**
+     * Samples a column span into the scratch array, in the order of the destination offsets.
+     */
+    private static int[] sampleColumn(int[] src, int srcOffset, int f_y, int f_dy, int dstStride, int length) {
+        int[] colors = getScratch(length);
+        int colorOffset = dstStride > 0 ? 0 : length - 1;
+        for (int i = 0; i < length; i++) {
+            colors[colorOffset] = src[srcOffset + (f_y >> FRACTION_BITS)];
+            colorOffset += dstStride;
+            f_y += f_dy;
+        }
+        return colors;
+    }
+
+    /**
+     * Blends sampled colors with the Vector API kernel. The span starts at dstOffset and steps by
+     * a stride of 1 or -1; the colors are in the order of the destination offsets.
+     */
+    private static void blendContiguous(int[] colors, int[] dst, int dstOffset, int stride, int length,
+                                        int shadeOffset) {
+        int depth = shadeOffset < 0 ? 0 : (shadeOffset >> 8) + ShadeTable.MIN_DEPTH + 1;
+        VECTORIZED.blend(colors, 0, dst, stride > 0 ? dstOffset : dstOffset - length + 1, length, depth);
+    }
+
+    /**
+     * Shades a span of opaque colors with the Vector API kernel. The span starts at offset and
+     * steps by a stride of 1 or -1.
+     */
+    private static void shadeContiguous(int[] data, int offset, int stride, int length, int shadeOffset) {
+        int depth = (shadeOffset >> 8) + ShadeTable.MIN_DEPTH + 1;
+        VECTORIZED.shadeOpaque(data, stride > 0 ? offset : offset - length + 1, length, depth);
+    }
+
+    // Pixels
+
+    /**
+     * Shades an opaque color using a row of the shade table's opaque shades.
+     */
+    static int shadeOpaque(byte[] opaqueShades, int shadeOffset, int srcColor) {
+        int r = opaqueShades[shadeOffset + ((srcColor >> 16) & 0xff)] & 0xff;
+        int g = opaqueShades[shadeOffset + ((srcColor >> 8) & 0xff)] & 0xff;
+        int b = opaqueShades[shadeOffset + (srcColor & 0xff)] & 0xff;
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Blends a translucent color over an opaque color, shading the source first if the shade
+     * offset is not -1.
+     */
+    static int blend(int dstColor, int srcColor, byte[] shades, int shadeOffset) {
+        int srcA = srcColor >>> 24;
+        int dstR = (dstColor >> 16) & 0xff;
+        int dstG = (dstColor >> 8) & 0xff;
+        int dstB = (dstColor & 0xff);
+        int srcR = (srcColor >> 16) & 0xff;
+        int srcG = (srcColor >> 8) & 0xff;
+        int srcB = (srcColor & 0xff);
+        if (shadeOffset >= 0) {
+            srcR = shades[shadeOffset + srcR] & 0xff;
+            srcG = shades[shadeOffset + srcG] & 0xff;
+            srcB = shades[shadeOffset + srcB] & 0xff;
+        }
+        int oneMinusSrcA = 0xff - srcA;
+
+        // For pre-multiplied color
+//      dstR = srcR + ((dstR * oneMinusSrcA) >> 8);
+//      dstG = srcG + ((dstG * oneMinusSrcA) >> 8);
+//      dstB = srcB + ((dstB * oneMinusSrcA) >> 8);
+
+        dstR = (srcA * srcR + dstR * oneMinusSrcA) >> 8;
+        dstG = (srcA * srcG + dstG * oneMinusSrcA) >> 8;
+        dstB = (srcA * srcB + dstB * oneMinusSrcA) >> 8;
+
+        return 0xff000000 | (dstR << 16) | (dstG << 8) | dstB;
+    }
+}
@@ -0,0 +1,158 @@
+package com.brackeen.scared;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Textures and their mip-maps, addressed by an integer id, so frame snapshots and the hot loops
+ * index int arrays instead of following texture references. Each level keeps its own data: the
+ * row-major SoftTexture.getData() (for floors) and the column-major SoftTexture.getColumnData()
+ * (for slivers).
+ *
+ * Tables are indexed by (id << LEVEL_BITS) + level. Textures must not be modified after they are
+ * added.
+ */
+public class TextureAtlas {
+
+    public static final int LEVEL_BITS = 3;
+    public static final int MAX_LEVELS = 1 << LEVEL_BITS;
+
+    // Alpha types of a level, for choosing a span kernel
+    public static final int ALPHA_OPAQUE = 0;  // Every pixel is opaque
+    public static final int ALPHA_KEYED = 1;   // Every pixel is opaque or fully transparent
+    public static final int ALPHA_BLENDED = 2; // Some pixels are translucent
+
+    private SoftTexture[] textures = new SoftTexture[16];
+    private int[] numLevels = new int[16];
+    private SoftTexture[] levelTextures = new SoftTexture[16 << LEVEL_BITS];
+    private int[] widths = new int[16 << LEVEL_BITS];
+    private int[] heights = new int[16 << LEVEL_BITS];
+    private int[] sizeBits = new int[16 << LEVEL_BITS];
+    private int[] alphaTypes = new int[16 << LEVEL_BITS];
+    private int numTextures;
+
+    // For textures that were since added to another atlas
+    private final IdentityHashMap<SoftTexture, Integer> ids = new IdentityHashMap<>();
+
+    /**
+     * Gets the id of a texture, adding it and its mip-maps if it isn't in the atlas. Returns -1
+     * for null.
+     */
+    public int getId(SoftTexture texture) {
+        if (texture == null) {
+            return -1;
+        }
+        if (texture.getAtlas() == this) {
+            return texture.getAtlasId();
+        }
+        Integer id = ids.get(texture);
+        if (id == null) {
+            id = add(texture);
+            ids.put(texture, id);
+        }
+        texture.setAtlas(this, id);
+        return id;
+    }
+
+    private int add(SoftTexture texture) {
+        int id = numTextures++;
+        if (id == textures.length) {
+            int newLength = textures.length * 2;
+            textures = Arrays.copyOf(textures, newLength);
+            numLevels = Arrays.copyOf(numLevels, newLength);
+            levelTextures = Arrays.copyOf(levelTextures, newLength << LEVEL_BITS);
+            widths = Arrays.copyOf(widths, newLength << LEVEL_BITS);
+            heights = Arrays.copyOf(heights, newLength << LEVEL_BITS);
+            sizeBits = Arrays.copyOf(sizeBits, newLength << LEVEL_BITS);
+            alphaTypes = Arrays.copyOf(alphaTypes, newLength << LEVEL_BITS);
+        }
+        textures[id] = texture;
+
+        int index = id << LEVEL_BITS;
+        int levels = 0;
+        for (SoftTexture level = texture; level != null && levels < MAX_LEVELS; level = level.getHalfSizeTexture()) {
+            int i = levels++;
+            // Create the column data now, rather than while rendering
+            level.getColumnData();
+            levelTextures[index + i] = level;
+            widths[index + i] = level.getWidth();
+            heights[index + i] = level.getHeight();
+            sizeBits[index + i] = level.getSizeBits();
+            alphaTypes[index + i] = getAlphaType(level.getData());
+        }
+        numLevels[id] = levels;
+        return id;
+    }
+
+    private static int getAlphaType(int[] data) {
+        int alphaType = ALPHA_OPAQUE;
+        for (int color : data) {
+            int alpha = color >>> 24;
+            if (alpha == 0) {
+                alphaType = ALPHA_KEYED;
+            } else if (alpha != 0xff) {
+                return ALPHA_BLENDED;
+            }
+        }
+        return alphaType;
+    }
+
+    public int getNumTextures() {
+        return numTextures;
+    }
+
+    public SoftTexture getTexture(int id) {
+        return textures[id];
+    }
+
+    public int getNumLevels(int id) {
+        return numLevels[id];
+    }
+
+    /**
+     * Gets the mip level to draw a texture at a height in pixels: the first level that is no
+     * taller than the height, or the last level if none are.
+     */
+    public int getLevel(int id, int height) {
+        int lastLevel = numLevels[id] - 1;
+        if (lastLevel == 0 || height <= 0) {
+            return lastLevel;
+        }
+        // Each level is half the height of the one before it
+        int fullHeight = heights[id << LEVEL_BITS];
+        int level = Math.max(0, Integer.numberOfLeadingZeros(height) - Integer.numberOfLeadingZeros(fullHeight));
+        if ((fullHeight >> level) > height) {
+            level++;
+        }
+        return Math.min(level, lastLevel);
+    }
+
+    /**
+     * Gets the texture of each level. Its getData() and getColumnData() hold the level's pixels.
+     */
+    public SoftTexture[] getLevelTextures() {
+        return levelTextures;
+    }
+
+    public int[] getWidths() {
+        return widths;
+    }
+
+    public int[] getHeights() {
+        return heights;
+    }
+
+    /**
+     * Gets log2 of each level's size, or -1 for levels that aren't square powers of two.
+     */
+    public int[] getSizeBits() {
+        return sizeBits;
+    }
+
+    /**
+     * Gets the alpha type of each level: ALPHA_OPAQUE, ALPHA_KEYED, or ALPHA_BLENDED.
+     */
+    public int[] getAlphaTypes() {
+        return alphaTypes;
+    }
+}
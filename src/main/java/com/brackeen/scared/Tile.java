@@ -5,6 +5,11 @@ import com.brackeen.scared.entity.Entity;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * A view of one tile of a map. The tile's type, subtype, state, render state, and texture are
+ * stored in the map's arrays, at index x + y * width, and are read and written through the view.
+ * The view holds the tile's entities.
+ */
 public class Tile {
 
     public static final int RENDER_STATE_MAX = (1 << 16);
@@ -17,16 +22,8 @@ public class Tile {
     public static final int TYPE_MOVABLE_WALL = 5;
     public static final int TYPE_EXIT = 6;
 
-    public int type;
-    public int subtype;
-    public int state;
-    public int renderState;
-    public int renderVisible;
-    private SoftTexture texture;
-    private List<Entity> entities;
-
-    /* Checks if the tile is solid for collision purposes. */
-    public boolean isSolid() {
+    /* Checks if a tile with the type and render state is solid for collision purposes. */
+    public static boolean isSolid(int type, int renderState) {
         if (type == TYPE_DOOR) {
             return renderState < RENDER_STATE_MAX * 3 / 4;
         } else {
@@ -34,6 +31,76 @@ public class Tile {
         }
     }
 
+    private final Map map;
+    private final int x;
+    private final int y;
+    private final int index;
+    private List<Entity> entities;
+
+    Tile(Map map, int x, int y) {
+        this.map = map;
+        this.x = x;
+        this.y = y;
+        this.index = x + y * map.getWidth();
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Gets the index of the tile in the map's arrays.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public int getType() {
+        return map.getTileTypes()[index];
+    }
+
+    /**
+     * Sets the type, with Map.setTileType().
+     */
+    public void setType(int type) {
+        map.setTileType(x, y, type);
+    }
+
+    public int getSubtype() {
+        return map.getTileSubtypes()[index];
+    }
+
+    public void setSubtype(int subtype) {
+        map.getTileSubtypes()[index] = subtype;
+        map.notifyTileChanged();
+    }
+
+    public int getState() {
+        return map.getTileStates()[index];
+    }
+
+    public void setState(int state) {
+        map.getTileStates()[index] = state;
+    }
+
+    public int getRenderState() {
+        return map.getTileRenderStates()[index];
+    }
+
+    public void setRenderState(int renderState) {
+        map.getTileRenderStates()[index] = renderState;
+        map.notifyTileChanged();
+    }
+
+    /* Checks if the tile is solid for collision purposes. */
+    public boolean isSolid() {
+        return isSolid(getType(), getRenderState());
+    }
+
     public List<Entity> getEntities() {
         return entities;
     }
@@ -43,14 +110,15 @@ public class Tile {
     }
 
     public SoftTexture getTexture() {
-        return texture;
+        return map.getTexture(map.getTileTextureIds()[index]);
     }
 
     public void setTexture(SoftTexture texture) {
         if (!texture.isPowerOfTwo()) {
             throw new IllegalArgumentException("Texture not a power of two");
         }
-        this.texture = texture;
+        map.getTileTextureIds()[index] = map.getTextureId(texture);
+        map.notifyTileChanged();
     }
 
     public void addEntity(Entity entity) {
@@ -74,23 +142,23 @@ public class Tile {
     }
 
     public int getDoorType() {
-        if (type == TYPE_DOOR) {
-            return subtype & 0x1f;
+        if (getType() == TYPE_DOOR) {
+            return getSubtype() & 0x1f;
         } else {
             return 0;
         }
     }
 
     public boolean isDoorUnlocked() {
-        return type == TYPE_DOOR && ((subtype & 0x1f) == 0 || (subtype & 0x20) != 0);
+        return getType() == TYPE_DOOR && ((getSubtype() & 0x1f) == 0 || (getSubtype() & 0x20) != 0);
     }
 
     public void setDoorUnlocked(boolean unlocked) {
-        if (type == TYPE_DOOR && (subtype & 0x1f) != 0) {
+        if (getType() == TYPE_DOOR && (getSubtype() & 0x1f) != 0) {
             if (unlocked) {
-                subtype |= 0x20;
+                setSubtype(getSubtype() | 0x20);
             } else {
-                subtype &= ~0x20;
+                setSubtype(getSubtype() & ~0x20);
             }
         }
     }
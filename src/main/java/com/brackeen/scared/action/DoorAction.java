@@ -51,8 +51,8 @@ public class DoorAction implements Action {
 
     private void setState(int state) {
         this.state = state;
-        tile.state = state;
-        startRenderState = tile.renderState;
+        tile.setState(state);
+        startRenderState = tile.getRenderState();
         ticks = 0;
     }
 
@@ -63,7 +63,7 @@ public class DoorAction implements Action {
 
     @Override
     public boolean isFinished() {
-        return (state == tile.state && (state == DONE || state == STAY_OPEN_FOREVER));
+        return (state == tile.getState() && (state == DONE || state == STAY_OPEN_FOREVER));
     }
 
     @Override
@@ -79,8 +79,8 @@ public class DoorAction implements Action {
         }
 
         // State set outside of this handler
-        if (state != tile.state) {
-            setState(tile.state);
+        if (state != tile.getState()) {
+            setState(tile.getState());
         }
 
         if (ticks < 0) {
@@ -89,9 +89,9 @@ public class DoorAction implements Action {
 
         switch (state) {
             case OPENING:
-                tile.renderState = startRenderState + ticks * Tile.RENDER_STATE_MAX / TICKS_TO_OPEN;
-                if (tile.renderState >= Tile.RENDER_STATE_MAX) {
-                    tile.renderState = Tile.RENDER_STATE_MAX;
+                tile.setRenderState(startRenderState + ticks * Tile.RENDER_STATE_MAX / TICKS_TO_OPEN);
+                if (tile.getRenderState() >= Tile.RENDER_STATE_MAX) {
+                    tile.setRenderState(Tile.RENDER_STATE_MAX);
                     setState(OPEN);
                 }
                 break;
@@ -108,13 +108,13 @@ public class DoorAction implements Action {
                 if (!shouldClose()) {
                     setState(OPENING);
                 } else {
-                    if (tile.renderState == Tile.RENDER_STATE_MAX) {
+                    if (tile.getRenderState() == Tile.RENDER_STATE_MAX) {
                         SoundPlayer3D.play("/sound/doorwoosh.wav", map.getPlayer(), x, y);
                     }
 
-                    tile.renderState = startRenderState - ticks * Tile.RENDER_STATE_MAX / TICKS_TO_CLOSE;
-                    if (tile.renderState <= 0) {
-                        tile.renderState = 0;
+                    tile.setRenderState(startRenderState - ticks * Tile.RENDER_STATE_MAX / TICKS_TO_CLOSE);
+                    if (tile.getRenderState() <= 0) {
+                        tile.setRenderState(0);
                         setState(DONE);
                         SoundPlayer3D.play("/sound/doorclose.wav", map.getPlayer(), x, y);
                     }
@@ -122,7 +122,7 @@ public class DoorAction implements Action {
                 break;
 
             case STAY_OPEN_FOREVER:
-                tile.renderState = 0;
+                tile.setRenderState(0);
                 break;
         }
     }
@@ -18,7 +18,7 @@ public class GeneratorAction implements Action {
         this.player = map.getPlayer();
         this.sourceTileX = x;
         this.sourceTileY = y;
-        AudioBuffer audioBuffer = App.getApp().getAudio("/sound/bigfan.wav");
+        AudioBuffer audioBuffer = App.getAppAudio("/sound/bigfan.wav");
 
         float volume = SoundPlayer3D.getVolume(player, sourceTileX, sourceTileY);
         float pan = SoundPlayer3D.getPan(player, sourceTileX, sourceTileY);
@@ -34,12 +34,12 @@ public class MovableWallAction implements Action {
 
         Tile playerTile = map.getTileAt(playerTileX, playerTileY);
         tile = map.getTileAt(x, y);
-        tile.state = STATE_MOVING;
+        tile.setState(STATE_MOVING);
 
         map.setDefaultFloorTexture(playerTile.getTexture());
         floorTexture = playerTile.getTexture();
 
-        App.getApp().getAudio("/sound/wallmove.wav").play();
+        App.getAppAudio("/sound/wallmove.wav").play();
         index = 0;
         ticks = 0;
     }
@@ -62,31 +62,31 @@ public class MovableWallAction implements Action {
 
         if (ticks < TICKS_PER_TILE_MOVE) {
             ticks++;
-            tile.renderState = Tile.RENDER_STATE_MAX * ticks / TICKS_PER_TILE_MOVE;
+            tile.setRenderState(Tile.RENDER_STATE_MAX * ticks / TICKS_PER_TILE_MOVE);
         } else {
             index++;
             SoftTexture texture = tile.getTexture();
             tile.setTexture(floorTexture);
-            tile.type = 0;
-            tile.subtype = 0;
-            tile.state = STATE_DONE;
-            tile.renderState = 0;
+            map.setTileType(x, y, Tile.TYPE_NOTHING);
+            tile.setSubtype(0);
+            tile.setState(STATE_DONE);
+            tile.setRenderState(0);
 
             x += dx;
             y += dy;
 
             tile = map.getTileAt(x, y);
             tile.setTexture(texture);
-            tile.type = Tile.TYPE_MOVABLE_WALL;
-            tile.subtype = 0;
-            tile.state = STATE_MOVING;
-            tile.renderState = 0;
+            map.setTileType(x, y, Tile.TYPE_MOVABLE_WALL);
+            tile.setSubtype(0);
+            tile.setState(STATE_MOVING);
+            tile.setRenderState(0);
 
             if (index == 2) {
                 index = 3;
-                tile.type = Tile.TYPE_WALL;
-                tile.state = STATE_DONE;
-                tile.renderState = 0;
+                map.setTileType(x, y, Tile.TYPE_WALL);
+                tile.setState(STATE_DONE);
+                tile.setRenderState(0);
             }
             ticks = 0;
         }
@@ -2,14 +2,18 @@ package com.brackeen.scared.entity;
 
 import com.brackeen.scared.SoftTexture;
 
+import java.util.Random;
+
 public class BlastMark extends Entity {
 
     private final SoftTexture[] textures;
+    private final Random random;
     private int countdown;
 
-    public BlastMark(SoftTexture[] textures, float x, float y, int countdown) {
+    public BlastMark(SoftTexture[] textures, Random random, float x, float y, int countdown) {
         super(0, x, y);
         this.textures = textures;
+        this.random = random;
         this.countdown = countdown;
         setTexture(textures[0]);
         setZ(0.5f - getTexture().getHeight() / 2 * getTextureScale());
@@ -18,7 +22,7 @@ public class BlastMark extends Entity {
     @Override
     public void tick() {
         if ((countdown % 2) == 0) {
-            int index = (int) (Math.random() * textures.length);
+            int index = (int) (random.nextDouble() * textures.length);
             index = Math.min(index, textures.length - 1);
             setTexture(textures[index]);
         }
@@ -29,9 +33,8 @@ public class BlastMark extends Entity {
     }
 
     @Override
-    public void setDistanceFromCamera(float distanceFromCamera) {
+    public float getDepthOffset() {
         // Bring it forward a bit so that it appears in front of walls
-        float extraDist = getTexture().getWidth() * getTextureScale();
-        super.setDistanceFromCamera(distanceFromCamera - extraDist);
+        return getTexture().getWidth() * getTextureScale();
     }
 }
@@ -112,7 +112,7 @@ public class Enemy extends Entity {
                 gotoHurtState = true;
             } else if (state == STATE_FIRE) {
                 // 50% of interrupting firing
-                if (Math.random() < .5) {
+                if (map.getRandom().nextDouble() < .5) {
                     gotoHurtState = true;
                 }
             } else if (state != STATE_HURT) {
@@ -159,7 +159,7 @@ public class Enemy extends Entity {
 
         if ((ticksRemaining <= 0 || state == STATE_TERMINATE) && Math.abs(dx) < 2f && Math.abs(dy) < 2f && state < STATE_READY) {
             // Player is very close - move immediately or fire
-            double pq = Math.random();
+            double pq = map.getRandom().nextDouble();
 
             if (pq < 0.25f) {
                 setState(STATE_MOVE_FAR_LEFT);
@@ -168,9 +168,9 @@ public class Enemy extends Entity {
             } else {
                 setState(STATE_READY);
             }
-        } else if (state > STATE_ASLEEP && state < STATE_READY && Math.random() < p) {
+        } else if (state > STATE_ASLEEP && state < STATE_READY && map.getRandom().nextDouble() < p) {
             // When moving, randomly change to another move state
-            int s = (int) Math.round(Math.random() * 6);
+            int s = (int) Math.round(map.getRandom().nextDouble() * 6);
             switch (s) {
                 case 0:
                 default:
@@ -265,9 +265,9 @@ public class Enemy extends Entity {
                                 double diffAngle = Math.abs(aimAngle - angleToPlayer);
                                 int hitPoints = 0;
                                 if (diffAngle < .04) { // about 2.3 degrees
-                                    hitPoints = 15 + (int) Math.round(Math.random() * 7);
+                                    hitPoints = 15 + (int) Math.round(map.getRandom().nextDouble() * 7);
                                 } else if (diffAngle < .25) { // about 15 degrees
-                                    hitPoints = 3 + (int) Math.round(Math.random() * 5);
+                                    hitPoints = 3 + (int) Math.round(map.getRandom().nextDouble() * 5);
                                 }
 
                                 boolean actuallyHurt = player.hurt(hitPoints);
@@ -288,7 +288,7 @@ public class Enemy extends Entity {
                     if (health <= 0) {
                         playSound3D("/sound/enemy_dead.wav", 1.5f, 0.4f);
                         setState(STATE_DYING);
-                    } else if (Math.random() < .666) {
+                    } else if (map.getRandom().nextDouble() < .666) {
                         setState(STATE_TERMINATE);
                     } else {
                         setState(STATE_ASLEEP);
@@ -347,7 +347,7 @@ public class Enemy extends Entity {
     }
 
     private void playSound3D(String audioName, float gain, float minVolume) {
-        AudioBuffer audio = App.getApp().getAudio(audioName);
+        AudioBuffer audio = App.getAppAudio(audioName);
         if (audio != null) {
             Entity listener = map.getPlayer();
             Entity source = this;
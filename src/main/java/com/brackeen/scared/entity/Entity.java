@@ -3,7 +3,7 @@ package com.brackeen.scared.entity;
 import com.brackeen.scared.SoftTexture;
 import com.brackeen.scared.Tile;
 
-public class Entity implements Comparable<Entity> {
+public class Entity {
 
     public static final int DEFAULT_PIXELS_PER_TILE = 64;
 
@@ -12,15 +12,20 @@ public class Entity implements Comparable<Entity> {
     private float x;
     private float y;
     private float z;
-    private float distanceFromCamera;
     private boolean deleted;
     private float direction; // degrees
+    // The location and direction at the start of the current tick, for interpolation
+    private float previousX;
+    private float previousY;
+    private float previousZ;
+    private float previousDirection;
     private SoftTexture texture;
     private float textureScale = 1f / DEFAULT_PIXELS_PER_TILE;
 
     public Entity(float radius, float x, float y) {
         setRadius(radius);
         setLocation(x, y);
+        storePreviousState();
     }
 
     public Tile getTile() {
@@ -47,12 +52,11 @@ public class Entity implements Comparable<Entity> {
         this.textureScale = textureScale;
     }
 
-    public float getDistanceFromCamera() {
-        return distanceFromCamera;
-    }
-
-    public void setDistanceFromCamera(float distanceFromCamera) {
-        this.distanceFromCamera = distanceFromCamera;
+    /**
+     * Gets how far in front of its location the entity is drawn.
+     */
+    public float getDepthOffset() {
+        return 0;
     }
 
     public float getRadius() {
@@ -100,6 +104,33 @@ public class Entity implements Comparable<Entity> {
         this.direction = direction;
     }
 
+    public float getPreviousX() {
+        return previousX;
+    }
+
+    public float getPreviousY() {
+        return previousY;
+    }
+
+    public float getPreviousZ() {
+        return previousZ;
+    }
+
+    public float getPreviousDirection() {
+        return previousDirection;
+    }
+
+    /**
+     * Stores the location and direction as the previous state, so the entity can be drawn
+     * between where it was at the start of the tick and where it is now.
+     */
+    public void storePreviousState() {
+        previousX = x;
+        previousY = y;
+        previousZ = z;
+        previousDirection = direction;
+    }
+
     public void tick() {
 
     }
@@ -136,14 +167,4 @@ public class Entity implements Comparable<Entity> {
         }
         return false;
     }
-
-    // Sort back-to-front
-    public int compareTo(Entity t) {
-        if (distanceFromCamera < t.distanceFromCamera) {
-            return 1;
-        } else if (distanceFromCamera > t.distanceFromCamera) {
-            return -1;
-        }
-        return 0;
-    }
 }
@@ -0,0 +1,127 @@
+package com.brackeen.scared;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The contiguous span kernels written with the Vector API (jdk.incubator.vector). This class is
+ * compiled separately, for Java 16 or newer, and SpanKernels loads it by name only when the
+ * module is present. The results are the same as the scalar kernels'.
+ */
+final class VectorSpanKernels implements SpanKernels.Vectorized {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    VectorSpanKernels() {
+    }
+
+    @Override
+    public void shadeOpaque(int[] data, int offset, int length, int depth) {
+        float inverseDepth = 1.0f / depth;
+        int end = offset + length;
+        int i = offset;
+        for (int upper = offset + SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            IntVector color = IntVector.fromArray(SPECIES, data, i);
+            shadeOpaque(color, depth, inverseDepth).intoArray(data, i);
+        }
+        if (i < end) {
+            VectorMask<Integer> mask = SPECIES.indexInRange(i, end);
+            IntVector color = IntVector.fromArray(SPECIES, data, i, mask);
+            shadeOpaque(color, depth, inverseDepth).intoArray(data, i, mask);
+        }
+    }
+
+    @Override
+    public void blend(int[] src, int srcOffset, int[] dst, int dstOffset, int length, int depth) {
+        float inverseDepth = depth == 0 ? 0 : 1.0f / depth;
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            IntVector color = IntVector.fromArray(SPECIES, src, srcOffset + i);
+            VectorMask<Integer> visible = color.compare(VectorOperators.UNSIGNED_GE, 0x01000000);
+            if (visible.anyTrue()) {
+                IntVector dstColor = IntVector.fromArray(SPECIES, dst, dstOffset + i);
+                blend(dstColor, color, depth, inverseDepth).intoArray(dst, dstOffset + i, visible);
+            }
+        }
+        if (i < length) {
+            VectorMask<Integer> mask = SPECIES.indexInRange(i, length);
+            IntVector color = IntVector.fromArray(SPECIES, src, srcOffset + i, mask);
+            VectorMask<Integer> visible = mask.and(color.compare(VectorOperators.UNSIGNED_GE, 0x01000000));
+            if (visible.anyTrue()) {
+                IntVector dstColor = IntVector.fromArray(SPECIES, dst, dstOffset + i, mask);
+                blend(dstColor, color, depth, inverseDepth).intoArray(dst, dstOffset + i, visible);
+            }
+        }
+    }
+
+    @Override
+    public void keyRow(int[] src, int srcOffset, int[] dst, int dstOffset, int length) {
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            IntVector color = IntVector.fromArray(SPECIES, src, srcOffset + i);
+            color.intoArray(dst, dstOffset + i, color.compare(VectorOperators.NE, 0));
+        }
+        if (i < length) {
+            VectorMask<Integer> mask = SPECIES.indexInRange(i, length);
+            IntVector color = IntVector.fromArray(SPECIES, src, srcOffset + i, mask);
+            color.intoArray(dst, dstOffset + i, mask.and(color.compare(VectorOperators.NE, 0)));
+        }
+    }
+
+    private static IntVector shadeOpaque(IntVector color, int depth, float inverseDepth) {
+        IntVector r = shadeChannel(color.lanewise(VectorOperators.LSHR, 16).and(0xff), depth, inverseDepth);
+        IntVector g = shadeChannel(color.lanewise(VectorOperators.LSHR, 8).and(0xff), depth, inverseDepth);
+        IntVector b = shadeChannel(color.and(0xff), depth, inverseDepth);
+        return r.lanewise(VectorOperators.LSHL, 16).or(g.lanewise(VectorOperators.LSHL, 8)).or(b).or(0xff000000);
+    }
+
+    /**
+     * Shades channels like ShadeTable's opaque shades.
+     */
+    private static IntVector shadeChannel(IntVector c, int depth, float inverseDepth) {
+        return shade(c, depth, inverseDepth).mul(0xff).lanewise(VectorOperators.ASHR, 8);
+    }
+
+    /**
+     * Shades channels like ShadeTable's shades. The quotient (c << 8) / depth is estimated with a
+     * float multiply, which is off by at most one for these ranges, and then corrected.
+     */
+    private static IntVector shade(IntVector c, int depth, float inverseDepth) {
+        IntVector n = c.lanewise(VectorOperators.LSHL, 8);
+        FloatVector estimate = (FloatVector) n.convert(VectorOperators.I2F, 0);
+        IntVector q = (IntVector) estimate.mul(inverseDepth).convert(VectorOperators.F2I, 0);
+        IntVector remainder = n.sub(q.mul(depth));
+        q = q.add(1, remainder.compare(VectorOperators.GE, depth));
+        return q.sub(1, remainder.compare(VectorOperators.LT, 0));
+    }
+
+    /**
+     * Blends colors over opaque colors like SpanKernels.blend(), shading the colors first if the
+     * depth is not 0. Unshaded opaque colors are copied, so they keep their exact channels.
+     */
+    private static IntVector blend(IntVector dstColor, IntVector srcColor, int depth, float inverseDepth) {
+        IntVector a = srcColor.lanewise(VectorOperators.LSHR, 24);
+        IntVector oneMinusA = a.neg().add(0xff);
+        IntVector r = blendChannel(dstColor, srcColor, 16, a, oneMinusA, depth, inverseDepth);
+        IntVector g = blendChannel(dstColor, srcColor, 8, a, oneMinusA, depth, inverseDepth);
+        IntVector b = blendChannel(dstColor, srcColor, 0, a, oneMinusA, depth, inverseDepth);
+        IntVector color = r.lanewise(VectorOperators.LSHL, 16).or(g.lanewise(VectorOperators.LSHL, 8)).or(b).or(0xff000000);
+        if (depth == 0) {
+            color = color.blend(srcColor, a.compare(VectorOperators.EQ, 0xff));
+        }
+        return color;
+    }
+
+    private static IntVector blendChannel(IntVector dstColor, IntVector srcColor, int shift,
+                                          IntVector a, IntVector oneMinusA, int depth, float inverseDepth) {
+        IntVector s = srcColor.lanewise(VectorOperators.LSHR, shift).and(0xff);
+        IntVector d = dstColor.lanewise(VectorOperators.LSHR, shift).and(0xff);
+        if (depth != 0) {
+            s = shade(s, depth, inverseDepth);
+        }
+        return a.mul(s).add(d.mul(oneMinusA)).lanewise(VectorOperators.ASHR, 8);
+    }
+}